@@ -0,0 +1,50 @@
+package org.aocompressor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses each corpus into a new archive. The time includes the scan of the source folder done by
+ * {@link Compressor#compress(java.io.File, String)} before {@code compressToZip}.
+ */
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CompressBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "MEDIA", "DEEP_FOLDERS"})
+    public Corpus corpus;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path source, target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = corpus.create();
+        target = Files.createTempFile("ao-benchmark-", ".ao");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Corpus.delete(source);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public Compressor.Result compress() {
+        Compressor.Result result = new Compressor().threads(threads).compress(source.toFile(), target.toString());
+        if (!result.success()) throw new IllegalStateException(result.message());
+        return result;
+    }
+
+}
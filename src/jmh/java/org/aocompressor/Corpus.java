@@ -0,0 +1,117 @@
+package org.aocompressor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Synthetic corpora shaped like Argentum Online resource folders, generated with fixed seeds so every run benchmarks the same
+ * bytes.
+ */
+
+public enum Corpus {
+
+    /** Thousands of tiny text files like the .ini and .dat files of the client. */
+    TINY_FILES {
+        @Override
+        void generate(Path root, Random random) throws IOException {
+            for (int i = 0; i < 20_000; i++) writeText(root.resolve("init/" + (i % 50) + "/" + i + ".ini"), 64 + random.nextInt(2048), random);
+        }
+    },
+
+    /** A few huge, moderately compressible files like map packs. */
+    HUGE_FILES {
+        @Override
+        void generate(Path root, Random random) throws IOException {
+            for (int i = 0; i < 3; i++) writeBinary(root.resolve("maps/pack" + i + ".bin"), 64 * 1024 * 1024, random);
+        }
+    },
+
+    /** Already compressed media (random bytes) like .png, .ogg and .mp3 files. */
+    MEDIA {
+        @Override
+        void generate(Path root, Random random) throws IOException {
+            String[] extensions = {"png", "ogg", "mp3", "jpg"};
+            for (int i = 0; i < 1_000; i++) {
+                byte[] data = new byte[16 * 1024 + random.nextInt(400 * 1024)];
+                random.nextBytes(data);
+                write(root.resolve("media/" + (i % 20) + "/" + i + "." + extensions[i % extensions.length]), data);
+            }
+        }
+    },
+
+    /** Small files spread over a deep folder hierarchy. */
+    DEEP_FOLDERS {
+        @Override
+        void generate(Path root, Random random) throws IOException {
+            for (int i = 0; i < 5_000; i++) {
+                StringBuilder dir = new StringBuilder("graphics");
+                for (int depth = 0, n = i; depth < 12; depth++, n /= 2) dir.append("/d").append(n % 2);
+                writeBinary(root.resolve(dir + "/" + i + ".bmp"), 512 + random.nextInt(16 * 1024), random);
+            }
+        }
+    };
+
+    abstract void generate(Path root, Random random) throws IOException;
+
+    /**
+     * Creates the corpus in a new temporary folder.
+     */
+    public Path create() throws IOException {
+        Path root = Files.createTempDirectory("ao-corpus-" + name().toLowerCase() + "-");
+        generate(root, new Random(name().hashCode()));
+        return root;
+    }
+
+    /** Deletes a folder and everything in it. */
+    public static void delete(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) return;
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void writeText(Path file, int size, Random random) throws IOException {
+        StringBuilder sb = new StringBuilder(size + 64);
+        for (int i = 0; sb.length() < size; i++)
+            sb.append("[Obj").append(i).append("]\r\nName=Item ").append(random.nextInt(5000)).append("\r\nGrhIndex=").append(random.nextInt(30000)).append("\r\n");
+        write(file, sb.substring(0, size).getBytes());
+    }
+
+    /** Writes bytes with some structure (runs and a small alphabet) so they deflate to roughly a third. */
+    private static void writeBinary(Path file, long size, Random random) throws IOException {
+        Files.createDirectories(file.getParent());
+        byte[] block = new byte[64 * 1024];
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                for (int i = 0; i < block.length; ) {
+                    byte value = (byte) random.nextInt(48);
+                    int run = 1 + random.nextInt(6);
+                    for (int j = 0; j < run && i < block.length; j++) block[i++] = value;
+                }
+                os.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    private static void write(Path file, byte[] data) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, data);
+    }
+
+}
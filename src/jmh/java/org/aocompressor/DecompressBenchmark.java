@@ -0,0 +1,65 @@
+package org.aocompressor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts an archive of each corpus into an empty folder.
+ */
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DecompressBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "MEDIA", "DEEP_FOLDERS"})
+    public Corpus corpus;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path archive, target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path source = corpus.create();
+        try {
+            archive = Files.createTempFile("ao-benchmark-", ".ao");
+            Compressor.Result result = new Compressor().compress(source.toFile(), archive.toString());
+            if (!result.success()) throw new IllegalStateException(result.message());
+        } finally {
+            Corpus.delete(source);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createTarget() throws IOException {
+        target = Files.createTempDirectory("ao-benchmark-");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        Corpus.delete(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(archive);
+    }
+
+    @Benchmark
+    public Compressor.Result decompress() {
+        Compressor.Result result = new Compressor().threads(threads).decompress(archive.toString(), target.toString(), message -> {
+        });
+        if (!result.success()) throw new IllegalStateException(result.message());
+        return result;
+    }
+
+}
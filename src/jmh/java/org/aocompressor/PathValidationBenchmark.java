@@ -0,0 +1,53 @@
+package org.aocompressor;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates entry names against the extraction folder with {@link ExtractionPlan#resolve(String)}, as decompression does for
+ * every entry.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PathValidationBenchmark {
+
+    private static final String[] NAMES = {
+            "graphics/1234.bmp",
+            "init/objects/obj.dat",
+            "sounds/music/12.mp3",
+            "maps/d0/d1/d0/d1/d0/d1/map1.map",
+            "../outside.txt",
+            "graphics/../../outside.txt"
+    };
+
+    private Path targetDir;
+    private ExtractionPlan plan;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        targetDir = Files.createTempDirectory("ao-benchmark-");
+        plan = new ExtractionPlan(targetDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Corpus.delete(targetDir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public void resolve(Blackhole blackhole) {
+        for (String name : NAMES) blackhole.consume(plan.resolve(name));
+    }
+
+}
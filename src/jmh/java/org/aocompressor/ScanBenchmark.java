@@ -0,0 +1,45 @@
+package org.aocompressor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks the source folder once with {@link SourceManifest#scan(Path, int)}, as every compression does before writing the
+ * archive.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScanBenchmark {
+
+    @Param({"TINY_FILES", "DEEP_FOLDERS"})
+    public Corpus corpus;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = corpus.create();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Corpus.delete(source);
+    }
+
+    @Benchmark
+    public SourceManifest scan() throws IOException {
+        return SourceManifest.scan(source, threads);
+    }
+
+}
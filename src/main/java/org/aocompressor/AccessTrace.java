@@ -0,0 +1,69 @@
+package org.aocompressor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records the entries read from an {@link AoArchive} in the order they are first read, to lay out the next version of the
+ * archive with {@link EntryOrder#trace(Path)}.
+ * <p>
+ * Attach it to the archives of the client with {@link AoArchive#trace(AccessTrace)}, play the usual way (log in, walk through
+ * the maps that matter) and {@link #write(Path) write} it when done. Only the first read of every name is recorded, so a trace
+ * costs one set lookup per read and stays as small as the set of entries actually used. Recording is safe from any number of
+ * threads; with several threads reading at once, entries first read at the same time are kept in whichever order they were
+ * recorded.
+ * <p>
+ * The file has one entry name per line; blank lines and lines starting with {@code #} are ignored, so a trace can be edited
+ * or concatenated by hand.
+ */
+
+public final class AccessTrace {
+
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final Queue<String> names = new ConcurrentLinkedQueue<>();
+
+    /** Records a read of an entry. Only the first read of every name is kept. */
+    public void record(String name) {
+        if (seen.add(name)) names.add(name);
+    }
+
+    /** Returns the names recorded so far, in the order they were first read. */
+    public List<String> names() {
+        return new ArrayList<>(names);
+    }
+
+    public int size() {
+        return seen.size();
+    }
+
+    /**
+     * Writes the names recorded so far, one per line.
+     */
+    public void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# Access trace: entries in the order they were first read");
+        lines.addAll(names);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the names of a trace file, skipping blank lines and comments.
+     */
+    public static List<String> read(Path file) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) names.add(line);
+        }
+        return names;
+    }
+
+}
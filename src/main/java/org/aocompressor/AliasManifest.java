@@ -0,0 +1,38 @@
+package org.aocompressor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Manifest of the entries that were stored once and must be restored under several names.
+ * <p>
+ * When files are deduplicated, only the first file with a given content is stored and every other file with the same content
+ * is recorded here as an alias of it. The manifest is stored as the {@value #NAME} entry, one {@code alias<TAB>target} pair per
+ * line in UTF-8, so standard ZIP tools still see it as a plain text file.
+ */
+
+final class AliasManifest {
+
+    static final String NAME = ".ao-aliases";
+
+    private AliasManifest() {
+    }
+
+    static byte[] format(Map<String, String> aliases) {
+        StringBuilder sb = new StringBuilder();
+        aliases.forEach((alias, target) -> sb.append(alias).append('\t').append(target).append('\n'));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Parses a manifest into a map from alias to target, ignoring malformed lines. */
+    static Map<String, String> parse(byte[] data) {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab > 0 && tab < line.length() - 1) aliases.put(line.substring(0, tab), line.substring(tab + 1));
+        }
+        return aliases;
+    }
+
+}
@@ -0,0 +1,364 @@
+package org.aocompressor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Random-access reader for {@code .ao} files that loads single entries without extracting the archive.
+ * <p>
+ * The central directory is read once when the archive is opened and kept as a compact index: parallel arrays with the
+ * location, sizes and CRC of every entry plus an open-addressing hash table from entry name to array index, so looking up an
+ * entry is O(1) and costs no allocation. The data is read with positional reads on a single {@link FileChannel}, which makes
+ * every method safe to call from many threads at the same time.
+ * <p>
+ * The aliases of deduplicated files (see {@link AliasManifest}) are indexed as names of their own that point at the stored
+ * entry, so they can be read like any other entry. Entries deflated with the {@link PresetDictionary} of the archive are
+ * inflated with it, which is read once when the archive is opened.
+ * <p>
+ * The reads can be recorded in an {@link AccessTrace}, to lay out the next version of the archive in the order the client
+ * reads it.
+ * <p>
+ * Example:
+ * <pre>{@code
+ * try (AoArchive archive = AoArchive.open(Path.of("Graficos.ao"))) {
+ *     ByteBuffer bmp = archive.read("graphics/1234.bmp");
+ * }
+ * }</pre>
+ */
+
+public final class AoArchive implements Closeable {
+
+    /** Deflate never expands a byte of compressed data into more than this many bytes. */
+    private static final long MAX_DEFLATE_RATIO = 1032;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final String[] names;
+    private final int[] methods;
+    private final int[] crcs;
+    private final long[] sizes;
+    private final long[] compressedSizes;
+    private final long[] headerOffsets;
+    /** Whether each entry was deflated with the preset dictionary. */
+    private final boolean[] withDictionary;
+    /** Preset dictionary of the archive, or {@code null} if it has none. */
+    private final byte[] dictionary;
+    /** Offset of the data of each entry, resolved from the local header on first access ({@code -1} until then). */
+    private final AtomicLongArray dataOffsets;
+    /** Names that can be looked up: the stored entries followed by the aliases. */
+    private final String[] keys;
+    /** Index of the stored entry of every key. */
+    private final int[] targets;
+    /** Open-addressing hash table of key indexes plus one ({@code 0} marks a free slot). */
+    private final int[] table;
+    /** Inflaters returned by finished reads, reset and reused by the next ones until the archive is closed. */
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    /** Records the names read, or {@code null} if they are not recorded. */
+    private volatile AccessTrace trace;
+    private volatile boolean closed;
+
+    private AoArchive(Path path, FileChannel channel, List<CentralDirectory.Entry> entries) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        int n = entries.size();
+        names = new String[n];
+        methods = new int[n];
+        crcs = new int[n];
+        sizes = new long[n];
+        compressedSizes = new long[n];
+        headerOffsets = new long[n];
+        withDictionary = new boolean[n];
+        dataOffsets = new AtomicLongArray(n);
+
+        // Later entries with the same name replace the earlier ones, like ZipFile does
+        Map<String, Integer> index = new LinkedHashMap<>();
+        int manifest = -1, dictionaryEntry = -1;
+        for (int i = 0; i < n; i++) {
+            CentralDirectory.Entry entry = entries.get(i);
+            names[i] = entry.name();
+            methods[i] = entry.method();
+            crcs[i] = (int) entry.crc();
+            sizes[i] = entry.size();
+            compressedSizes[i] = entry.compressedSize();
+            headerOffsets[i] = entry.offset();
+            withDictionary[i] = entry.dictionary();
+            dataOffsets.set(i, -1);
+            if (entry.name().equals(AliasManifest.NAME)) manifest = i;
+            else if (entry.name().equals(PresetDictionary.NAME)) dictionaryEntry = i;
+            else index.put(entry.name(), i);
+        }
+
+        // Neither the manifest nor the dictionary is deflated with the dictionary, so both can be read before it is set
+        if (dictionaryEntry >= 0 && sizes[dictionaryEntry] > PresetDictionary.MAX_SIZE)
+            throw new ZipException("The preset dictionary of the archive is larger than " + PresetDictionary.MAX_SIZE + " bytes");
+        dictionary = dictionaryEntry >= 0 ? read(dictionaryEntry).array() : null;
+
+        if (manifest >= 0) {
+            AliasManifest.parse(read(manifest).array()).forEach((alias, target) -> {
+                Integer i = index.get(target);
+                if (i != null) index.putIfAbsent(alias, i);
+            });
+        }
+
+        keys = index.keySet().toArray(String[]::new);
+        targets = index.values().stream().mapToInt(Integer::intValue).toArray();
+        table = new int[Integer.highestOneBit(Math.max(keys.length, 1) * 2) << 1];
+        for (int k = 0; k < keys.length; k++) table[slot(keys[k])] = k + 1;
+    }
+
+    /**
+     * Opens an archive and indexes its central directory.
+     *
+     * @throws ZipException if the archive is corrupt
+     */
+    public static AoArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new AoArchive(path, channel, CentralDirectory.read(channel));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Records the names read from now on with {@link #read(String)} and {@link #newInputStream(String)} in {@code trace}, or
+     * stops recording if it is {@code null}. Several archives can share a trace.
+     */
+    public AoArchive trace(AccessTrace trace) {
+        this.trace = trace;
+        return this;
+    }
+
+    /** Returns the number of names that can be read, including directories and aliases. */
+    public int size() {
+        return keys.length;
+    }
+
+    /** Returns the names of all the entries in the order they are stored, followed by the aliases. */
+    public List<String> names() {
+        return Arrays.asList(keys.clone());
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /** Returns the uncompressed size of an entry. */
+    public long size(String name) throws NoSuchFileException {
+        return sizes[require(name)];
+    }
+
+    /**
+     * Reads and inflates a whole entry into a heap buffer, checking its CRC.
+     *
+     * @throws NoSuchFileException if the archive has no entry with that name
+     */
+    public ByteBuffer read(String name) throws IOException {
+        int i = require(name);
+        record(name);
+        return read(i);
+    }
+
+    private ByteBuffer read(int i) throws IOException {
+        String name = names[i];
+        if (sizes[i] > Integer.MAX_VALUE - 8 || compressedSizes[i] > Integer.MAX_VALUE - 8)
+            throw new ZipException("Entry '" + name + "' is too large to be read into memory, use newInputStream()");
+        long offset = dataOffset(i);
+        // The sizes are checked before allocating them, so a corrupt header cannot ask for gigabytes
+        if (compressedSizes[i] > channel.size() - offset) throw new ZipException("Entry '" + name + "' runs past the end of the archive");
+        if (methods[i] == ZipEntry.STORED && sizes[i] != compressedSizes[i])
+            throw new ZipException("Stored entry '" + name + "' has a size of " + sizes[i] + " bytes but " + compressedSizes[i] + " bytes of data");
+        if (methods[i] == ZipEntry.DEFLATED && sizes[i] / MAX_DEFLATE_RATIO > compressedSizes[i])
+            throw new ZipException("Entry '" + name + "' declares more data than deflate can encode in " + compressedSizes[i] + " bytes");
+
+        byte[] data = new byte[(int) sizes[i]];
+        if (methods[i] == ZipEntry.STORED) readFully(offset, data, data.length);
+        else if (methods[i] == ZipEntry.DEFLATED) {
+            byte[] compressed = new byte[(int) compressedSizes[i]];
+            readFully(offset, compressed, compressed.length);
+            Inflater inflater = inflater(i);
+            try {
+                inflater.setInput(compressed);
+                int n = 0;
+                while (n < data.length && !inflater.finished()) {
+                    int read = inflater.inflate(data, n, data.length - n);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    n += read;
+                }
+                if (n != data.length) throw new ZipException("Entry '" + name + "' is truncated");
+            } catch (DataFormatException e) {
+                throw new ZipException("Entry '" + name + "' is corrupt: " + e.getMessage());
+            } finally {
+                release(inflater);
+            }
+        } else throw new ZipException("Entry '" + name + "' uses an unsupported compression method " + methods[i]);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != crcs[i]) throw new ZipException("Entry '" + name + "' has an invalid CRC");
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Opens a stream that inflates an entry while it is read, for entries too large to be held in memory.
+     *
+     * @throws NoSuchFileException if the archive has no entry with that name
+     */
+    public InputStream newInputStream(String name) throws IOException {
+        int i = require(name);
+        record(name);
+        InputStream raw = new ChannelInputStream(dataOffset(i), compressedSizes[i]);
+        if (methods[i] == ZipEntry.STORED) return raw;
+        if (methods[i] != ZipEntry.DEFLATED) throw new ZipException("Entry '" + name + "' uses an unsupported compression method " + methods[i]);
+        return new InflaterInputStream(raw, inflater(i), 8192) {
+            private boolean closed, eof;
+
+            @Override
+            protected void fill() throws IOException {
+                if (eof) throw new ZipException("Entry '" + name + "' is truncated");
+                len = in.read(buf, 0, buf.length);
+                if (len == -1) {
+                    // The raw inflater may need one byte past the end of the data to finish, like ZipFile provides
+                    buf[0] = 0;
+                    len = 1;
+                    eof = true;
+                }
+                inf.setInput(buf, 0, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                super.close();
+                release(inf);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+        for (Inflater inflater; (inflater = inflaters.poll()) != null; ) inflater.end();
+    }
+
+    private void record(String name) {
+        AccessTrace trace = this.trace;
+        if (trace != null) trace.record(name);
+    }
+
+    /** Returns an inflater for entry {@code i}, with the preset dictionary already set if the entry needs it. */
+    private Inflater inflater(int i) throws ZipException {
+        if (withDictionary[i] && dictionary == null) throw new ZipException("Entry '" + names[i] + "' needs the preset dictionary, which the archive lacks");
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) inflater = new Inflater(true);
+        if (withDictionary[i]) inflater.setDictionary(dictionary);
+        return inflater;
+    }
+
+    private void release(Inflater inflater) {
+        if (closed) inflater.end();
+        else {
+            inflater.reset();
+            inflaters.offer(inflater);
+        }
+    }
+
+    /** Returns the index of the stored entry for {@code name}, or {@code -1} if there is none. */
+    int indexOf(String name) {
+        int key = table[slot(name)] - 1;
+        return key >= 0 ? targets[key] : -1;
+    }
+
+    private int require(String name) throws NoSuchFileException {
+        int i = indexOf(name);
+        if (i < 0) throw new NoSuchFileException(name, null, "not found in " + path);
+        return i;
+    }
+
+    /** Returns the slot that holds {@code name}, or the free slot where it would be inserted. */
+    private int slot(String name) {
+        int mask = table.length - 1;
+        int h = name.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (table[slot] != 0 && !keys[table[slot] - 1].equals(name)) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private long dataOffset(int i) throws IOException {
+        long offset = dataOffsets.get(i);
+        if (offset < 0) {
+            offset = CentralDirectory.dataOffset(channel, headerOffsets[i], names[i]);
+            dataOffsets.set(i, offset);
+        }
+        return offset;
+    }
+
+    private void readFully(long position, byte[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new ZipException("Unexpected end of archive");
+        }
+    }
+
+    /**
+     * Reads a range of the archive with positional reads, so several streams can be read concurrently.
+     */
+    private final class ChannelInputStream extends InputStream {
+
+        private long position;
+        private final long end;
+
+        ChannelInputStream(long position, long length) {
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) throw new ZipException("Unexpected end of archive");
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+    }
+
+}
@@ -7,9 +7,9 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.List;
 import java.util.Objects;
 
 /**
@@ -21,10 +21,19 @@ import java.util.Objects;
 
 public class App extends JFrame {
 
-    private final Compressor compressor = new Compressor();
+    /** Item of the order box that loads an access trace. */
+    private static final String TRACE_ITEM = "Trace...";
+
     private Logger logger;
-    private JButton compressButton, decompressButton;
-    private JProgressBar progressBar;
+    private JButton compressButton, updateButton, decompressButton, verifyButton, reportButton;
+    private JComboBox<CompressionProfile> profileBox;
+    /** The orders of {@link EntryOrder#presets()}, the trace loaded last and the item that loads a trace. */
+    private JComboBox<Object> orderBox;
+    private JCheckBox deduplicateBox, dictionaryBox, selectBox;
+    /** Operations started from the window, so several can be queued while others run. */
+    private final JobQueue jobQueue = new JobQueue(Math.min(2, Runtime.getRuntime().availableProcessors()), this::createProgressBar);
+    /** Run report of the last operation, saved with the Report button. */
+    private RunReport lastReport;
 
     public App() {
         initializeGUI();
@@ -45,7 +54,7 @@ public class App extends JFrame {
     private void setupWindow() {
         setTitle("AO Compressor");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(500, 250);
+        setSize(1100, 300);
         setLocationRelativeTo(null);
         setResizable(false);
         setIconImage(new ImageIcon(Objects.requireNonNull(getClass().getResource("/icon.png"))).getImage());
@@ -62,9 +71,67 @@ public class App extends JFrame {
         // Buttons
         JPanel buttonPanel = new JPanel();
         compressButton = createButton("Compress", this::compress);
+        updateButton = createButton("Update", this::update);
         decompressButton = createButton("Decompress", this::decompress);
+        verifyButton = createButton("Verify", this::verify);
+        reportButton = createButton("Report", this::saveReport);
+        reportButton.setToolTipText("Save the timings of the last operation as JSON");
+        reportButton.setEnabled(false);
         buttonPanel.add(compressButton);
+        buttonPanel.add(updateButton);
         buttonPanel.add(decompressButton);
+        buttonPanel.add(verifyButton);
+        buttonPanel.add(reportButton);
+
+        profileBox = new JComboBox<>(CompressionProfile.presets().toArray(CompressionProfile[]::new));
+        profileBox.setFocusable(false);
+        profileBox.setToolTipText("Compression profile");
+        buttonPanel.add(profileBox);
+
+        orderBox = new JComboBox<>(EntryOrder.presets().toArray());
+        orderBox.addItem(TRACE_ITEM);
+        orderBox.setFocusable(false);
+        orderBox.setToolTipText("Layout of the entries in the archive");
+        orderBox.addActionListener(new ActionListener() {
+            private Object previous = orderBox.getSelectedItem();
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (orderBox.getSelectedItem() == TRACE_ITEM) {
+                    EntryOrder trace = chooseTrace();
+                    if (trace == null) orderBox.setSelectedItem(previous);
+                    else {
+                        // Only the last trace is kept, just above the item that loads one
+                        if (orderBox.getItemCount() > EntryOrder.presets().size() + 1) orderBox.removeItemAt(EntryOrder.presets().size());
+                        orderBox.insertItemAt(trace, EntryOrder.presets().size());
+                        orderBox.setSelectedItem(trace);
+                    }
+                }
+                previous = orderBox.getSelectedItem();
+            }
+        });
+        buttonPanel.add(orderBox);
+
+        deduplicateBox = new JCheckBox("Dedup");
+        deduplicateBox.setFocusable(false);
+        deduplicateBox.setToolTipText("Store files with identical content only once");
+        buttonPanel.add(deduplicateBox);
+
+        dictionaryBox = new JCheckBox("Dict");
+        dictionaryBox.setFocusable(false);
+        dictionaryBox.setToolTipText("Deflate small files with a preset dictionary trained from them");
+        buttonPanel.add(dictionaryBox);
+
+        selectBox = new JCheckBox("Select");
+        selectBox.setFocusable(false);
+        selectBox.setToolTipText("Ask which entries to extract when decompressing");
+        buttonPanel.add(selectBox);
+
+        JSpinner jobsSpinner = new JSpinner(new SpinnerNumberModel(jobQueue.parallelism(), 1, Runtime.getRuntime().availableProcessors(), 1));
+        jobsSpinner.setToolTipText("Operations that run at the same time, the rest wait in the queue");
+        jobsSpinner.addChangeListener(e -> jobQueue.parallelism((Integer) jobsSpinner.getValue()));
+        buttonPanel.add(new JLabel("Jobs"));
+        buttonPanel.add(jobsSpinner);
 
         JLabel link = Utils.createLink("Source Code", "https://github.com/rusocode/ao-compressor");
         link.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 10));
@@ -87,7 +154,7 @@ public class App extends JFrame {
     private JPanel createCenterPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.add(createLogPanel(), BorderLayout.CENTER);
-        panel.add(createProgressPanel(), BorderLayout.SOUTH);
+        panel.add(jobQueue.component(), BorderLayout.SOUTH);
         return panel;
     }
 
@@ -106,14 +173,6 @@ public class App extends JFrame {
         return scrollPane;
     }
 
-    private JPanel createProgressPanel() {
-        progressBar = createProgressBar();
-        JPanel progressPanel = new JPanel(new BorderLayout());
-        progressPanel.setBorder(BorderFactory.createEmptyBorder(0, 5, 5, 5));
-        progressPanel.add(progressBar);
-        return progressPanel;
-    }
-
     private JProgressBar createProgressBar() {
         JProgressBar bar = new JProgressBar(0, 100);
         bar.setForeground(new Color(0x33BB4C));
@@ -172,22 +231,53 @@ public class App extends JFrame {
         String targetFile = chooseAOToSave();
         if (targetFile == null) return;
 
+        CompressionProfile profile = (CompressionProfile) profileBox.getSelectedItem();
+        boolean deduplicate = deduplicateBox.isSelected();
+        boolean presetDictionary = dictionaryBox.isSelected();
+        EntryOrder order = (EntryOrder) orderBox.getSelectedItem();
         logger.log("Starting compression of '" + sourceDir.getName() + "' folder...");
 
-        // Executes a task to compress a folder with progress tracking, UI updates, and logging
+        // Queues a task to compress a folder with progress tracking, UI updates, and logging. Every job gets its own Compressor,
+        // so changing the options while it waits does not change the job
         TaskRunner.run()
-                .task(() -> compressor.compress(sourceDir, targetFile))
+                .task(progress -> keepReport(new Compressor().profile(profile).deduplicate(deduplicate).presetDictionary(presetDictionary).order(order)
+                        .logger(logger::log).compress(sourceDir, targetFile, progress)))
                 .logger(logger)
-                .progressBar(progressBar)
-                .onStart(() -> setUIEnabled(false))
-                .onFinish(() -> setUIEnabled(true))
+                .queue(jobQueue)
+                .title("Compress '" + sourceDir.getName() + "'")
                 .operationType("Compressed")
                 .targetPath(targetFile)
-                .postLogs(() -> calculateCompression(sourceDir.toPath(), Path.of(targetFile)))
                 .execute();
 
     }
 
+    private void update(ActionEvent e) {
+        // 1) Select a folder to compress
+        File sourceDir = chooseDirectory("Select folder to compress");
+        if (sourceDir == null) return;
+
+        // 2) Select the .ao (zip file) file to update
+        File targetFile = chooseAOToOpen();
+        if (targetFile == null) return;
+
+        CompressionProfile profile = (CompressionProfile) profileBox.getSelectedItem();
+        boolean deduplicate = deduplicateBox.isSelected();
+        boolean presetDictionary = dictionaryBox.isSelected();
+        EntryOrder order = (EntryOrder) orderBox.getSelectedItem();
+        logger.log("Starting update of '" + targetFile.getName() + "' from '" + sourceDir.getName() + "' folder...");
+
+        // Executes a task to re-pack only the files that changed since the last compression
+        TaskRunner.run()
+                .task(progress -> keepReport(new Compressor().profile(profile).deduplicate(deduplicate).presetDictionary(presetDictionary).order(order)
+                        .logger(logger::log).update(sourceDir, targetFile.getAbsolutePath(), progress)))
+                .logger(logger)
+                .queue(jobQueue)
+                .title("Update '" + targetFile.getName() + "'")
+                .operationType("Updated")
+                .targetPath(targetFile.getAbsolutePath())
+                .execute();
+    }
+
     private void decompress(ActionEvent e) {
         // 1) Select .ao (zip file) file
         File sourceFile = chooseAOToOpen();
@@ -197,45 +287,88 @@ public class App extends JFrame {
         File targetDir = chooseDirectory("Select target folder");
         if (targetDir == null) return;
 
+        // 3) Optionally, the entries to extract
+        EntrySelection selection = selectBox.isSelected() ? chooseSelection() : EntrySelection.ALL;
+        if (selection == null) return;
+
         // Calculate the decompression path
         String targetPath = targetDir.toPath().resolve(Utils.getFileName(sourceFile.toPath()) + "-decompressed").toString();
 
-        logger.log("Starting decompression of '" + sourceFile.getName() + "' file...");
+        logger.log("Starting decompression of " + (selection.isAll() ? "" : selection + " from ") + "'" + sourceFile.getName() + "' file...");
 
-        // Executes a task to decompress a file with progress tracking, UI updates, and logging
+        // Queues a task to decompress a file with progress tracking, UI updates, and logging
         TaskRunner.run()
-                .task(() -> compressor.decompress(sourceFile.getAbsolutePath(), targetDir.getAbsolutePath(), logger::log))
+                .task(progress -> keepReport(new Compressor().decompress(sourceFile.getAbsolutePath(), targetDir.getAbsolutePath(), selection, logger::log,
+                        progress)))
                 .logger(logger)
-                .progressBar(progressBar)
-                .onStart(() -> setUIEnabled(false))
-                .onFinish(() -> setUIEnabled(true))
+                .queue(jobQueue)
+                .title("Decompress '" + sourceFile.getName() + "'")
                 .operationType("Decompressed")
                 .targetPath(targetPath)
                 .execute();
     }
 
-    private List<String> calculateCompression(Path sourceDir, Path targetFile) {
+    private void verify(ActionEvent e) {
+        // 1) Select .ao (zip file) file
+        File sourceFile = chooseAOToOpen();
+        if (sourceFile == null) return;
+
+        logger.log("Starting verification of '" + sourceFile.getName() + "' file...");
+
+        // Executes a task to check every entry of the file without extracting it
+        TaskRunner.run()
+                .task(progress -> keepReport(new Compressor().verify(sourceFile.getAbsolutePath(), logger::log, progress)))
+                .logger(logger)
+                .queue(jobQueue)
+                .title("Verify '" + sourceFile.getName() + "'")
+                .operationType("Verified")
+                .execute();
+    }
+
+    /**
+     * Keeps the run report of an operation for the Report button. Called from the worker thread.
+     */
+    private Compressor.Result keepReport(Compressor.Result result) {
+        if (result.report() != null) SwingUtilities.invokeLater(() -> {
+            lastReport = result.report();
+            reportButton.setEnabled(true);
+        });
+        return result;
+    }
+
+    private void saveReport(ActionEvent e) {
+        if (lastReport == null) return;
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Save run report");
+        chooser.setFileFilter(new FileNameExtensionFilter("JSON files (*.json)", "json"));
+        chooser.setSelectedFile(new File(lastReport.operation() + "-report.json"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        String path = chooser.getSelectedFile().getAbsolutePath();
+        File file = new File(path.toLowerCase().endsWith(".json") ? path : path + ".json");
         try {
-            long directorySize = Utils.getDirectorySize(sourceDir);
-            long compressedSize = Files.size(targetFile);
-            double ratio = (1.0 - (double) compressedSize / directorySize) * 100.0;
-            return List.of(String.format("%s → %s (%.1f%% compressed)",
-                    Utils.formatFileSize(directorySize),
-                    Utils.formatFileSize(compressedSize),
-                    ratio));
-        } catch (Exception e) {
-            return List.of("Could not calculate compression.\n" + e.getMessage());
+            Files.writeString(file.toPath(), lastReport.toJson() + System.lineSeparator(), StandardCharsets.UTF_8);
+            logger.log("Saved the " + lastReport.operation() + " report to '" + file + "'");
+            logger.newLine();
+        } catch (IOException ex) {
+            Utils.showError("Could not save the report.\n" + ex.getMessage());
         }
     }
 
     /**
-     * Enables or disables the UI components when the worker thread runs or not.
+     * Asks for an access trace written by {@link AccessTrace} to lay out the entries with.
      *
-     * @param enabled true to enable the UI components, false to disable them
+     * @return the order of the trace, or {@code null} if the dialog was cancelled or the trace could not be read
      */
-    private void setUIEnabled(boolean enabled) {
-        compressButton.setEnabled(enabled);
-        decompressButton.setEnabled(enabled);
+    private EntryOrder chooseTrace() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Select access trace");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION || chooser.getSelectedFile() == null) return null;
+        try {
+            return EntryOrder.trace(chooser.getSelectedFile().toPath());
+        } catch (IOException e) {
+            Utils.showError("Could not read the access trace.\n" + e.getMessage());
+            return null;
+        }
     }
 
     private File chooseAOToOpen() {
@@ -265,6 +398,20 @@ public class App extends JFrame {
         return chooser;
     }
 
+    /**
+     * Asks for the globs, folders or paths of the entries to extract, one per line.
+     *
+     * @return the selection, or {@code null} if the dialog was cancelled
+     */
+    private EntrySelection chooseSelection() {
+        JTextArea patterns = new JTextArea(8, 40);
+        patterns.setFont(new Font("Consolas", Font.PLAIN, 11));
+        Object message = new Object[]{"Entries to extract, one per line (graphics/body/**, *.wav, maps/ or maps/1.map):", new JScrollPane(patterns)};
+        if (JOptionPane.showConfirmDialog(this, message, "Select entries", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE)
+                != JOptionPane.OK_OPTION) return null;
+        return EntrySelection.parse(patterns.getText().lines().toList());
+    }
+
     private File chooseDirectory(String title) {
         JFileChooser chooser = new JFileChooser();
         chooser.setDialogTitle(title);
@@ -0,0 +1,158 @@
+package org.aocompressor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Buffers and codecs reused across the files of a compression or extraction, so the per-file work allocates nothing.
+ * <p>
+ * Every thread gets its own copy buffers, one {@link Deflater} per level and one {@link Inflater}, which are reset instead of
+ * being ended and created again. The copy buffers are direct, so reads and writes on a {@link java.nio.channels.FileChannel}
+ * and the codecs work on them without an extra copy through the heap. Arrays that are handed from one thread to another, like
+ * the deflated data going from a worker to the writer, are taken from and given back to shared queues instead, one per power
+ * of two, holding at most {@value #MAX_POOLED_BYTES} bytes in total.
+ * <p>
+ * {@link #close()} ends the codecs of every thread and drops the buffers once an operation is done, instead of leaving them
+ * to the garbage collector or to the thread that ran the operation. The pool can be used again afterwards, starting empty.
+ */
+
+final class BufferPool {
+
+    /** Size of the copy buffers used by default. */
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /** Bytes of arrays kept for reuse at most; arrays given back beyond this are left to the garbage collector. */
+    static final long MAX_POOLED_BYTES = 64 * 1024 * 1024;
+
+    private final int bufferSize;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+    /** Every scratch created since the last {@link #close()}, whichever thread it belongs to. */
+    private final Queue<Scratch> scratches = new ConcurrentLinkedQueue<>();
+    /** Arrays given back, by size class: class {@code k} holds arrays of at least {@code 2^k} bytes. */
+    private final List<Queue<byte[]>> arrays = new ArrayList<>(32);
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    BufferPool(int bufferSize) {
+        if (bufferSize < 4096) throw new IllegalArgumentException("bufferSize must be at least 4096: " + bufferSize);
+        this.bufferSize = bufferSize;
+        for (int k = 0; k < 32; k++) arrays.add(new ConcurrentLinkedQueue<>());
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /** Returns the input copy buffer of the current thread, cleared. */
+    ByteBuffer input() {
+        return scratch().input.clear();
+    }
+
+    /** Returns the output copy buffer of the current thread, cleared. */
+    ByteBuffer output() {
+        return scratch().output.clear();
+    }
+
+    /** Returns a raw deflater of the current thread for the given level and the default strategy, ready for new input. */
+    Deflater deflater(int level) {
+        Scratch s = scratch();
+        Deflater deflater = s.deflaters[level + 1];
+        if (deflater == null) s.deflaters[level + 1] = deflater = new Deflater(level, true);
+        else deflater.reset();
+        deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
+        return deflater;
+    }
+
+    /** Returns the deflater of the current thread for a codec, or {@code null} if the data is stored. */
+    Deflater deflater(CompressionProfile.Codec codec) {
+        if (codec.isAuto()) throw new IllegalArgumentException("The auto codec must be resolved first");
+        if (codec.method() == ZipEntry.STORED) return null;
+        Deflater deflater = deflater(codec.level());
+        deflater.setStrategy(codec.strategy());
+        return deflater;
+    }
+
+    /** Returns a raw inflater of the current thread, ready for new input. */
+    Inflater inflater() {
+        Scratch s = scratch();
+        if (s.inflater == null) s.inflater = new Inflater(true);
+        else s.inflater.reset();
+        return s.inflater;
+    }
+
+    /**
+     * Takes an array of at least {@code length} bytes that may be passed to another thread, which gives it back with
+     * {@link #give(byte[])} once it is done with it.
+     */
+    byte[] take(int length) {
+        // Every array of class k fits; the class below may hold arrays of this same length, like the blocks of a large file
+        int k = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        byte[] array = k < arrays.size() ? arrays.get(k).poll() : null;
+        if (array == null && k > 0) {
+            array = arrays.get(k - 1).poll();
+            if (array != null && array.length < length) {
+                arrays.get(k - 1).offer(array);
+                array = null;
+            }
+        }
+        if (array == null) return new byte[length];
+        pooledBytes.addAndGet(-array.length);
+        return array;
+    }
+
+    void give(byte[] array) {
+        if (array.length == 0 || pooledBytes.addAndGet(array.length) > MAX_POOLED_BYTES) {
+            pooledBytes.addAndGet(-array.length);
+            return;
+        }
+        arrays.get(31 - Integer.numberOfLeadingZeros(array.length)).offer(array);
+    }
+
+    /**
+     * Ends the codecs and drops the buffers of every thread, and empties the shared queues. Must not be called while an
+     * operation still uses the pool.
+     */
+    void close() {
+        for (Scratch s; (s = scratches.poll()) != null; ) s.close();
+        scratch.remove();
+        for (Queue<byte[]> queue : arrays) queue.clear();
+        pooledBytes.set(0);
+    }
+
+    private Scratch scratch() {
+        Scratch s = scratch.get();
+        if (s == null || s.closed) {
+            scratch.set(s = new Scratch());
+            scratches.add(s);
+        }
+        return s;
+    }
+
+    private final class Scratch {
+        ByteBuffer input = ByteBuffer.allocateDirect(bufferSize);
+        ByteBuffer output = ByteBuffer.allocateDirect(bufferSize);
+        final Deflater[] deflaters = new Deflater[Deflater.BEST_COMPRESSION + 2];
+        Inflater inflater;
+        /** Set once the codecs are ended; the thread that owns this scratch creates a new one on its next use. */
+        volatile boolean closed;
+
+        void close() {
+            closed = true;
+            for (int i = 0; i < deflaters.length; i++) {
+                if (deflaters[i] != null) deflaters[i].end();
+                deflaters[i] = null;
+            }
+            if (inflater != null) inflater.end();
+            inflater = null;
+            // A thread that keeps this scratch only keeps the empty shell
+            input = output = null;
+        }
+    }
+
+}
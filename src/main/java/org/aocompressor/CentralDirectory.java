@@ -0,0 +1,192 @@
+package org.aocompressor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a ZIP archive, including the ZIP64 records, without touching the entry data.
+ * <p>
+ * Unlike {@link java.util.zip.ZipFile}, it exposes where the raw (still compressed) data of every entry is located, which is
+ * what allows entries to be copied between archives without inflating and deflating them again.
+ * <p>
+ * Every length and offset read from the archive is checked against the records it points into before it is used, so a
+ * truncated or corrupt archive fails with a {@link ZipException} instead of an unchecked exception.
+ */
+
+final class CentralDirectory {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int TIMESTAMP_EXTRA_ID = 0x5455;
+    private static final int DICTIONARY_EXTRA_ID = ZipWriter.DICTIONARY_EXTRA_ID;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private CentralDirectory() {
+    }
+
+    /**
+     * Reads all the entries of the central directory in the order they are listed.
+     */
+    static List<Entry> read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, 0xFFFF + 22);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+
+        int end = -1;
+        for (int i = tailSize - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) throw new ZipException("End of central directory not found");
+
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long centralSize = tail.getInt(end + 12) & ZIP64_MAGIC;
+        long centralStart = tail.getInt(end + 16) & ZIP64_MAGIC;
+
+        long locator = fileSize - tailSize + end - 20;
+        if (locator >= 0) {
+            ByteBuffer buffer = readFully(channel, locator, 20);
+            if (buffer.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64EndStart = buffer.getLong(8);
+                if (zip64EndStart < 0 || zip64EndStart > locator - 56) throw new ZipException("Invalid ZIP64 end of central directory locator");
+                ByteBuffer zip64End = readFully(channel, zip64EndStart, 56);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) throw new ZipException("Invalid ZIP64 end of central directory");
+                count = zip64End.getLong(32);
+                centralSize = zip64End.getLong(40);
+                centralStart = zip64End.getLong(48);
+            }
+        }
+
+        if (count < 0 || centralStart < 0 || centralSize < 0 || centralSize > Integer.MAX_VALUE || centralSize > fileSize - centralStart)
+            throw new ZipException("Invalid central directory");
+
+        ByteBuffer central = readFully(channel, centralStart, (int) centralSize);
+        List<Entry> entries = new ArrayList<>((int) Math.min(count, 1 << 20));
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + 46 > central.limit() || central.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+                throw new ZipException("Invalid central directory header");
+
+            int flags = central.getShort(pos + 8) & 0xFFFF;
+            int method = central.getShort(pos + 10) & 0xFFFF;
+            int dosTime = central.getInt(pos + 12);
+            long crc = central.getInt(pos + 16) & ZIP64_MAGIC;
+            long compressedSize = central.getInt(pos + 20) & ZIP64_MAGIC;
+            long size = central.getInt(pos + 24) & ZIP64_MAGIC;
+            int nameLength = central.getShort(pos + 28) & 0xFFFF;
+            int extraLength = central.getShort(pos + 30) & 0xFFFF;
+            int commentLength = central.getShort(pos + 32) & 0xFFFF;
+            long offset = central.getInt(pos + 42) & ZIP64_MAGIC;
+            if (pos + 46 + nameLength + extraLength + commentLength > central.limit())
+                throw new ZipException("Invalid central directory header: the name, extra field or comment runs past the directory");
+
+            byte[] nameBytes = new byte[nameLength];
+            central.get(pos + 46, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            long modifiedTime = fromDosTime(dosTime);
+            boolean exactTime = false, dictionary = false;
+
+            int extra = pos + 46 + nameLength, extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = central.getShort(extra) & 0xFFFF;
+                int length = central.getShort(extra + 2) & 0xFFFF;
+                int data = extra + 4, dataEnd = data + length;
+                if (dataEnd > extraEnd) throw new ZipException("Invalid extra field of '" + name + "'");
+                if (id == ZIP64_EXTRA_ID) {
+                    if (size == ZIP64_MAGIC) {
+                        size = getZip64Value(central, data, dataEnd, name);
+                        data += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = getZip64Value(central, data, dataEnd, name);
+                        data += 8;
+                    }
+                    if (offset == ZIP64_MAGIC) offset = getZip64Value(central, data, dataEnd, name);
+                } else if (id == TIMESTAMP_EXTRA_ID && length >= 5 && (central.get(data) & 1) != 0) {
+                    modifiedTime = (central.getInt(data + 1) & ZIP64_MAGIC) * 1000;
+                    exactTime = true;
+                } else if (id == DICTIONARY_EXTRA_ID) dictionary = true;
+                extra = dataEnd;
+            }
+            if (offset >= centralStart) throw new ZipException("Invalid local header offset of '" + name + "'");
+
+            entries.add(new Entry(name, method, flags, crc, compressedSize, size, offset, modifiedTime, exactTime,
+                    dictionary));
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    /** Reads a size or offset of a ZIP64 extra field that must lie within {@code dataEnd} and fit in a signed long. */
+    private static long getZip64Value(ByteBuffer central, int data, int dataEnd, String name) throws ZipException {
+        if (data + 8 > dataEnd) throw new ZipException("Truncated ZIP64 extra field of '" + name + "'");
+        long value = central.getLong(data);
+        if (value < 0) throw new ZipException("Invalid ZIP64 size or offset of '" + name + "'");
+        return value;
+    }
+
+    /**
+     * Returns the position of the first byte of the entry data, right after its local header.
+     */
+    static long dataOffset(FileChannel channel, Entry entry) throws IOException {
+        return dataOffset(channel, entry.offset(), entry.name());
+    }
+
+    static long dataOffset(FileChannel channel, long headerOffset, String name) throws IOException {
+        if (headerOffset < 0 || headerOffset > channel.size() - 30) throw new ZipException("Invalid local header offset for '" + name + "'");
+        ByteBuffer header = readFully(channel, headerOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) throw new ZipException("Invalid local header for '" + name + "'");
+        return headerOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of archive");
+        }
+        return buffer.flip();
+    }
+
+    private static long fromDosTime(int dosTime) {
+        try {
+            return LocalDateTime.of(((dosTime >> 25) & 0x7F) + 1980, (dosTime >> 21) & 0x0F, (dosTime >> 16) & 0x1F,
+                    (dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F, (dosTime << 1) & 0x3E).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * An entry of the central directory.
+     *
+     * @param offset     position of the local header
+     * @param exactTime  true if the modification time comes from an extended timestamp instead of the 2-second DOS time
+     * @param dictionary true if the data was deflated with the {@link PresetDictionary} of the archive
+     */
+    record Entry(String name, int method, int flags, long crc, long compressedSize, long size, long offset, long modifiedTime,
+                 boolean exactTime, boolean dictionary) {
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+    }
+
+}
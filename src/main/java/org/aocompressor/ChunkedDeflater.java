@@ -0,0 +1,210 @@
+package org.aocompressor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates a single large file on every thread of the pool, the way pigz does.
+ * <p>
+ * Deflating across entries does nothing for an archive dominated by one file, like a map pack of several GB: the writer
+ * thread would deflate it alone while the workers wait. Instead, the file is split into blocks of {@value #BLOCK_SIZE} bytes
+ * that the workers deflate independently, each one with the last {@value #WINDOW} bytes of the block before it as preset
+ * dictionary, so matches that cross a block boundary are still found. Every block but the last ends with a
+ * {@link Deflater#SYNC_FLUSH}, which closes it on a byte boundary without marking it as the final block, so the blocks
+ * concatenated in order are a single valid deflate stream that {@link java.util.zip.ZipFile} or any other tool inflates as
+ * usual. The dictionary only seeds the window of the deflater: the inflater finds those bytes in the output it already
+ * produced, so it needs no dictionary of its own.
+ * <p>
+ * Every block also computes the CRC of its data, and the writer combines them in order with {@link #combine(long, long, long)}
+ * instead of reading the file again. The output is the same for any number of threads. The cost is a few bytes per block for
+ * the flush and the blocks starting with a fresh Huffman table, well under 0.1% of the size.
+ * <p>
+ * At most {@code ahead} blocks are queued or held in memory at a time. This class is used by the writer thread only; the
+ * workers just deflate blocks.
+ */
+
+final class ChunkedDeflater implements ZipWriter.Blocks, Closeable {
+
+    /** Files of at least this size are deflated in blocks by default. */
+    static final long DEFAULT_THRESHOLD = 16 * 1024 * 1024;
+    static final int BLOCK_SIZE = 1024 * 1024;
+    /** Bytes of the previous block used as dictionary, which is the whole deflate window. */
+    static final int WINDOW = 32 * 1024;
+
+    /** Reversed CRC-32 polynomial. */
+    private static final int POLY = 0xEDB88320;
+    /** {@code x^(2^n)} modulo the polynomial, for {@code n} from 0 to 31. */
+    private static final int[] X2N = new int[32];
+
+    static {
+        int p = 1 << 30; // x^1
+        X2N[0] = p;
+        for (int n = 1; n < 32; n++) X2N[n] = p = multiply(p, p);
+    }
+
+    private final FileChannel channel;
+    private final long length;
+    private final CompressionProfile.Codec codec;
+    private final ExecutorService pool;
+    private final int ahead;
+    private final BufferPool buffers;
+    private final RunReport report;
+    private final LongConsumer progress;
+    private final Deque<Future<Deflated>> pending = new ArrayDeque<>();
+    /** Offset of the next block to submit. */
+    private long next;
+    private long crc, size;
+    /** Output of the last block returned, given back to the pool on the next call. */
+    private byte[] last;
+
+    /**
+     * @param length   bytes of the file to deflate, which must not shrink while it is read
+     * @param ahead    blocks deflated or waiting to be written at a time
+     * @param progress receives the number of bytes of every block written
+     */
+    ChunkedDeflater(FileChannel channel, long length, CompressionProfile.Codec codec, ExecutorService pool, int ahead, BufferPool buffers,
+                    RunReport report, LongConsumer progress) {
+        if (length == 0) throw new IllegalArgumentException("An empty file has no blocks");
+        this.channel = channel;
+        this.length = length;
+        this.codec = codec;
+        this.pool = pool;
+        this.ahead = ahead;
+        this.buffers = buffers;
+        this.report = report;
+        this.progress = progress;
+    }
+
+    @Override
+    public ZipWriter.Block next() throws IOException {
+        if (last != null) {
+            buffers.give(last);
+            last = null;
+        }
+        while (pending.size() < ahead && next < length) {
+            long offset = next;
+            int n = (int) Math.min(BLOCK_SIZE, length - offset);
+            pending.add(pool.submit(() -> deflate(offset, n, offset + n == length)));
+            next += n;
+        }
+        Future<Deflated> future = pending.poll();
+        if (future == null) return null;
+
+        long mark = System.nanoTime();
+        Deflated block = Compressor.await(future);
+        report.add(RunReport.Phase.WAIT, mark);
+        crc = combine(crc, block.crc(), block.size());
+        size += block.size();
+        last = block.data();
+        progress.accept(block.size());
+        return new ZipWriter.Block(block.data(), block.length());
+    }
+
+    @Override
+    public long crc() {
+        return crc;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /** Drops the blocks that were not written, after a failure or a cancellation. */
+    @Override
+    public void close() {
+        for (Future<Deflated> future : pending) future.cancel(false);
+        pending.clear();
+    }
+
+    /**
+     * Deflates a block on a worker thread, with the end of the previous block as dictionary.
+     *
+     * @param last whether the block ends the file, and so the deflate stream
+     */
+    private Deflated deflate(long offset, int n, boolean last) throws IOException {
+        long mark = System.nanoTime();
+        int window = (int) Math.min(WINDOW, offset);
+        byte[] input = buffers.take(window + n);
+        ByteBuffer buffer = ByteBuffer.wrap(input, 0, window + n);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset - window + buffer.position()) < 0)
+                throw new IOException("The file shrank while it was compressed");
+        }
+        mark = report.add(RunReport.Phase.READ, mark);
+
+        CRC32 blockCrc = new CRC32();
+        blockCrc.update(input, window, n);
+        mark = report.add(RunReport.Phase.CHECKSUM, mark);
+
+        Deflater deflater = buffers.deflater(codec);
+        if (window > 0) deflater.setDictionary(input, 0, window);
+        deflater.setInput(input, window, n);
+        byte[] output = buffers.take(n + (n >> 8) + 64);
+        int length = 0;
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == output.length) output = Arrays.copyOf(output, output.length * 2);
+                length += deflater.deflate(output, length, output.length - length);
+            }
+        } else {
+            // A flush that fills the output may have more to write, so it is repeated until some room is left
+            while (true) {
+                length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+                if (length < output.length) break;
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+        }
+        report.add(RunReport.Phase.DEFLATE, mark);
+        buffers.give(input);
+        return new Deflated(output, length, blockCrc.getValue(), n);
+    }
+
+    /**
+     * Returns the CRC-32 of two pieces of data from the CRC of each one and the length of the second, like zlib's
+     * {@code crc32_combine}: the CRC of the first is multiplied by {@code x^(8 * length2)} modulo the polynomial.
+     */
+    static long combine(long crc1, long crc2, long length2) {
+        return (multiply(powerOfX(length2), (int) crc1) ^ (int) crc2) & 0xFFFFFFFFL;
+    }
+
+    /** Returns {@code x^(8 * bytes)} modulo the polynomial. */
+    private static int powerOfX(long bytes) {
+        int p = 1 << 31; // x^0
+        for (int k = 3; bytes != 0; bytes >>>= 1, k++)
+            if ((bytes & 1) != 0) p = multiply(X2N[k & 31], p);
+        return p;
+    }
+
+    /** Multiplies two polynomials modulo the CRC-32 polynomial, bit-reversed like the CRC. {@code a} must not be 0. */
+    private static int multiply(int a, int b) {
+        int m = 1 << 31, p = 0;
+        while (true) {
+            if ((a & m) != 0) {
+                p ^= b;
+                if ((a & (m - 1)) == 0) return p;
+            }
+            m >>>= 1;
+            b = (b & 1) != 0 ? (b >>> 1) ^ POLY : b >>> 1;
+        }
+    }
+
+    /**
+     * @param length bytes of deflated data at the start of {@code data}
+     * @param size   bytes of the file in the block
+     */
+    private record Deflated(byte[] data, int length, long crc, int size) {
+    }
+
+}
@@ -0,0 +1,367 @@
+package org.aocompressor;
+
+import org.aocompressor.Compressor.Result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless command-line interface for build pipelines. It uses {@link Compressor} directly and never touches AWT or Swing, so
+ * it runs on machines without a display.
+ * <p>
+ * Every run prints a JSON summary with the files, bytes and time of each job (plus its {@link RunReport} with
+ * {@code --report}), and exits with {@value #EXIT_OK} if every job
+ * succeeded, {@value #EXIT_FAILED} if any job failed, or {@value #EXIT_USAGE} if the arguments are invalid.
+ */
+
+public final class Cli {
+
+    static final int EXIT_OK = 0, EXIT_FAILED = 1, EXIT_USAGE = 2;
+
+    private static final String USAGE = """
+            Usage:
+              java -cp ao-compressor.jar org.aocompressor.Cli <command> [options] <arguments>
+
+            Commands:
+              compress <source-dir> <target.ao>      Compress a folder into an .ao file
+              update <source-dir> <target.ao>        Re-pack an .ao file, recompressing only the changed files
+              decompress <source.ao> <target-dir>    Extract an .ao file into <target-dir>/<name>-decompressed
+              verify <source.ao>                     Check the size and CRC of every entry without extracting
+              diff <old.ao> <new.ao> <patch.ao>      Create a patch with the entries that changed from <old.ao>
+              patch <old.ao> <patch.ao> <target.ao>  Rebuild the new version of <old.ao> from a patch
+              batch <manifest>                       Run the jobs listed in a manifest, one per line:
+                                                     <command> <arguments> (# starts a comment)
+
+            Options:
+              --threads <n>           Worker threads per job (default: number of cores)
+              --jobs <n>              Jobs run at the same time in batch mode (default: 1)
+              --profile <name|file>   Compression profile: default, resources, fastest, smallest, auto or a rules file
+              --dedup                 Store files with identical content only once
+              --dictionary            Deflate small files with a preset dictionary trained from them
+              --order <name|file>     Layout of the entries: path, folder, id or an access trace file (default: path)
+              --summary <file>        Write the JSON summary to a file instead of the standard output
+              --report                Add the phase timings and slowest entries of every job to the summary
+              --include <pattern>     Extract only the entries matching a glob, folder/ or path (repeatable)
+              --include-from <file>   Extract only the entries matching the patterns of a file, one per line
+              --max-size <size>       Stop an extraction that writes more than <size> in total (default: 16G)
+              --max-entry-size <size> Stop an extraction with an entry larger than <size> (default: 4G)
+              --max-ratio <n>         Stop an extraction with an entry compressed more than <n>:1 (default: 1100)
+              --max-entries <n>       Stop an extraction of an archive with more than <n> entries (default: 1000000)
+              --no-limits             Extract without any of the limits above
+              --buffer-size <size>    Size of the read and write buffers of every thread (default: 256K)
+              --chunk-min <size>      Deflate files of at least <size> in blocks on every thread (default: 16M)
+            """;
+
+    private final PrintStream out, err;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int jobs = 1;
+    private CompressionProfile profile = CompressionProfile.DEFAULT;
+    private boolean deduplicate;
+    private boolean presetDictionary;
+    private EntryOrder order = EntryOrder.PATH;
+    private ExtractionLimits limits = ExtractionLimits.DEFAULT;
+    private int bufferSize = BufferPool.DEFAULT_BUFFER_SIZE;
+    private long chunkThreshold = ChunkedDeflater.DEFAULT_THRESHOLD;
+    private Path summary;
+    private boolean reports;
+    private final List<String> includes = new ArrayList<>();
+    private EntrySelection selection = EntrySelection.ALL;
+
+    private Cli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs the command line and returns the exit status.
+     */
+    public static int run(String[] args) {
+        return new Cli(System.out, System.err).execute(args);
+    }
+
+    private int execute(String[] args) {
+        if (List.of(args).contains("--help") || List.of(args).contains("-h")) {
+            out.print(USAGE);
+            return EXIT_OK;
+        }
+
+        List<Job> jobList;
+        try {
+            List<String> arguments = parseOptions(args);
+            if (arguments.isEmpty()) throw new IllegalArgumentException("Missing command");
+            String command = arguments.get(0).toLowerCase(Locale.ROOT);
+            if (command.equals("batch")) {
+                if (arguments.size() != 2) throw new IllegalArgumentException("batch expects a manifest file");
+                jobList = readManifest(Path.of(arguments.get(1)));
+            } else jobList = List.of(Job.of(arguments));
+        } catch (IllegalArgumentException | IOException e) {
+            err.println("Error: " + e.getMessage());
+            err.println();
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        long start = System.nanoTime();
+        List<JobResult> results = runJobs(jobList);
+        long time = (System.nanoTime() - start) / 1_000_000;
+
+        String json = toJson(results, time, reports);
+        if (summary == null) out.println(json);
+        else {
+            try {
+                Files.writeString(summary, json + System.lineSeparator(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                err.println("Could not write the summary to '" + summary + "': " + e.getMessage());
+                return EXIT_FAILED;
+            }
+        }
+
+        return results.stream().allMatch(r -> r.result().success()) ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private List<String> parseOptions(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--threads" -> threads = parsePositive(arg, value(args, ++i, arg));
+                case "--jobs" -> jobs = parsePositive(arg, value(args, ++i, arg));
+                case "--profile" -> profile = parseProfile(value(args, ++i, arg));
+                case "--dedup" -> deduplicate = true;
+                case "--dictionary" -> presetDictionary = true;
+                case "--order" -> order = parseOrder(value(args, ++i, arg));
+                case "--summary" -> summary = Path.of(value(args, ++i, arg));
+                case "--report" -> reports = true;
+                case "--include" -> includes.add(value(args, ++i, arg));
+                case "--include-from" -> includes.addAll(Files.readAllLines(Path.of(value(args, ++i, arg)), StandardCharsets.UTF_8));
+                case "--max-size" -> limits = limits.withMaxTotalBytes(parseSize(arg, value(args, ++i, arg)));
+                case "--max-entry-size" -> limits = limits.withMaxEntryBytes(parseSize(arg, value(args, ++i, arg)));
+                case "--max-ratio" -> limits = limits.withMaxRatio(parsePositive(arg, value(args, ++i, arg)));
+                case "--max-entries" -> limits = limits.withMaxEntries(parsePositive(arg, value(args, ++i, arg)));
+                case "--no-limits" -> limits = ExtractionLimits.NONE;
+                case "--buffer-size" -> bufferSize = parseBufferSize(arg, value(args, ++i, arg));
+                case "--chunk-min" -> chunkThreshold = parseSize(arg, value(args, ++i, arg));
+                default -> {
+                    if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown option " + arg);
+                    arguments.add(arg);
+                }
+            }
+        }
+        selection = EntrySelection.parse(includes);
+        return arguments;
+    }
+
+    private List<Job> readManifest(Path manifest) throws IOException {
+        List<Job> jobList = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            List<String> tokens = tokenize(line);
+            if (tokens.isEmpty()) continue;
+            try {
+                jobList.add(Job.of(tokens));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(manifest + ":" + lineNumber + ": " + e.getMessage());
+            }
+        }
+        if (jobList.isEmpty()) throw new IllegalArgumentException("The manifest '" + manifest + "' has no jobs");
+        return jobList;
+    }
+
+    private List<JobResult> runJobs(List<Job> jobList) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(jobs, jobList.size()));
+        try {
+            List<Future<JobResult>> futures = new ArrayList<>();
+            for (int i = 0; i < jobList.size(); i++) {
+                int number = i + 1;
+                Job job = jobList.get(i);
+                futures.add(pool.submit(() -> runJob(number, job)));
+            }
+            List<JobResult> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (Exception e) {
+                    results.add(new JobResult(jobList.get(i), Result.failure("Unexpected error.\n" + e), 0, 0));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private JobResult runJob(int number, Job job) {
+        if (job.target() == null) err.printf("[%d] %s '%s'%n", number, job.command(), job.source());
+        else if (job.base() == null) err.printf("[%d] %s '%s' -> '%s'%n", number, job.command(), job.source(), job.target());
+        else err.printf("[%d] %s '%s' + '%s' -> '%s'%n", number, job.command(), job.base(), job.source(), job.target());
+        Compressor compressor = new Compressor().threads(threads).profile(profile).deduplicate(deduplicate).presetDictionary(presetDictionary)
+                .order(order).limits(limits).bufferSize(bufferSize).chunkThreshold(chunkThreshold)
+                .logger(message -> err.printf("[%d] %s%n", number, message));
+        AtomicLong bytes = new AtomicLong();
+        ProgressListener listener = (bytesProcessed, totalBytes, currentEntry) -> bytes.set(bytesProcessed);
+
+        long start = System.nanoTime();
+        Result result = switch (job.command()) {
+            case "compress" -> compressor.compress(new File(job.source()), job.target(), listener);
+            case "update" -> compressor.update(new File(job.source()), job.target(), listener);
+            case "verify" -> compressor.verify(job.source(), message -> err.printf("[%d] %s%n", number, message), listener);
+            case "diff" -> compressor.diff(job.base(), job.source(), job.target(), listener);
+            case "patch" -> compressor.patch(job.base(), job.source(), job.target(), listener);
+            default -> compressor.decompress(job.source(), job.target(), selection, message -> err.printf("[%d] %s%n", number, message), listener);
+        };
+        long time = (System.nanoTime() - start) / 1_000_000;
+
+        err.printf("[%d] %s (%d files, %s, %dms)%n", number, result.message().replace('\n', ' '), Math.max(result.filesProcessed(), 0),
+                Utils.formatFileSize(bytes.get()), time);
+        return new JobResult(job, result, bytes.get(), time);
+    }
+
+    private static String toJson(List<JobResult> results, long time, boolean reports) {
+        StringBuilder sb = new StringBuilder("{\n  \"jobs\": [");
+        for (int i = 0; i < results.size(); i++) {
+            JobResult r = results.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"command\": ").append(Utils.toJsonString(r.job().command()));
+            if (r.job().base() != null) sb.append(", \"base\": ").append(Utils.toJsonString(r.job().base()));
+            sb.append(", \"source\": ").append(Utils.toJsonString(r.job().source()))
+                    .append(", \"target\": ").append(r.job().target() == null ? "null" : Utils.toJsonString(r.job().target()))
+                    .append(", \"success\": ").append(r.result().success())
+                    .append(", \"files\": ").append(Math.max(r.result().filesProcessed(), 0))
+                    .append(", \"bytes\": ").append(r.bytes())
+                    .append(", \"timeMs\": ").append(r.time())
+                    .append(", \"message\": ").append(Utils.toJsonString(r.result().message()));
+            if (reports && r.result().report() != null)
+                sb.append(", \"report\": ").append(r.result().report().toJson().replace("\n", "\n    "));
+            sb.append('}');
+        }
+        long failed = results.stream().filter(r -> !r.result().success()).count();
+        sb.append("\n  ],\n  \"failed\": ").append(failed).append(",\n  \"timeMs\": ").append(time).append("\n}");
+        return sb.toString();
+    }
+
+    private static CompressionProfile parseProfile(String value) throws IOException {
+        for (CompressionProfile preset : CompressionProfile.presets())
+            if (preset.name().equalsIgnoreCase(value)) return preset;
+        Path file = Path.of(value);
+        if (!Files.isRegularFile(file)) throw new IllegalArgumentException("Unknown profile " + value);
+        return CompressionProfile.parse(Utils.getFileName(file), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    private static EntryOrder parseOrder(String value) throws IOException {
+        for (EntryOrder preset : EntryOrder.presets())
+            if (preset.name().equalsIgnoreCase(value)) return preset;
+        Path file = Path.of(value);
+        if (!Files.isRegularFile(file)) throw new IllegalArgumentException("Unknown order " + value);
+        return EntryOrder.trace(file);
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new IllegalArgumentException(option + " expects a value");
+        return args[i];
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 1) return n;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(option + " expects a positive number: " + value);
+    }
+
+    /** Parses a number of bytes with an optional {@code K}, {@code M} or {@code G} suffix. */
+    private static long parseSize(String option, String value) {
+        String digits = value.toUpperCase(Locale.ROOT);
+        int shift = switch (digits.isEmpty() ? ' ' : digits.charAt(digits.length() - 1)) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            default -> 0;
+        };
+        if (shift > 0) digits = digits.substring(0, digits.length() - 1);
+        try {
+            long n = Long.parseLong(digits);
+            if (n >= 1 && n <= Long.MAX_VALUE >> shift) return n << shift;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(option + " expects a size like 512M or 4G: " + value);
+    }
+
+    private static int parseBufferSize(String option, String value) {
+        long size = parseSize(option, value);
+        if (size < 4096 || size > 64 * 1024 * 1024) throw new IllegalArgumentException(option + " expects a size between 4K and 64M: " + value);
+        return (int) size;
+    }
+
+    /** Splits a manifest line on whitespace, keeping double-quoted paths together and dropping comments. */
+    private static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                if (token == null) token = new StringBuilder();
+            } else if (!quoted && c == '#') break;
+            else if (!quoted && Character.isWhitespace(c)) {
+                if (token != null) tokens.add(token.toString());
+                token = null;
+            } else {
+                if (token == null) token = new StringBuilder();
+                token.append(c);
+            }
+        }
+        if (token != null) tokens.add(token.toString());
+        return tokens;
+    }
+
+    /**
+     * @param base   archive a patch is created from or applied to, or {@code null} for the other commands
+     * @param source source of the job: the new archive of a diff or the patch of a patch
+     * @param target target of the job, or {@code null} for a verification
+     */
+    private record Job(String command, String base, String source, String target) {
+
+        static Job of(List<String> tokens) {
+            String command = tokens.get(0).toLowerCase(Locale.ROOT);
+            return switch (command) {
+                case "compress", "update", "decompress" -> {
+                    if (tokens.size() != 3) throw new IllegalArgumentException(command + " expects a source and a target");
+                    yield new Job(command, null, tokens.get(1), tokens.get(2));
+                }
+                case "verify" -> {
+                    if (tokens.size() != 2) throw new IllegalArgumentException("verify expects an archive");
+                    yield new Job(command, null, tokens.get(1), null);
+                }
+                case "diff", "patch" -> {
+                    if (tokens.size() != 4) throw new IllegalArgumentException(command + " expects an archive, a " + (command.equals("diff")
+                            ? "new archive and a patch" : "patch and a target"));
+                    yield new Job(command, tokens.get(1), tokens.get(2), tokens.get(3));
+                }
+                default -> throw new IllegalArgumentException("Unknown command " + tokens.get(0));
+            };
+        }
+
+    }
+
+    private record JobResult(Job job, Result result, long bytes, long time) {
+    }
+
+}
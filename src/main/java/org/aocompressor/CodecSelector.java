@@ -0,0 +1,134 @@
+package org.aocompressor;
+
+import org.aocompressor.CompressionProfile.Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Chooses the codec of a file from a sample of {@value #SAMPLE_SIZE} bytes, for the files of the {@link Codec#AUTO} codec.
+ * <p>
+ * Smaller files are sampled whole. Larger ones are sampled in {@value #SLICES} slices spread from the start to the end of the
+ * file, so a file with a header that looks nothing like the rest of it, like an archive or a format that embeds images next to
+ * text, is still judged by most of its content.
+ * <p>
+ * The sample is deflated once at the fastest level and its bytes are counted to estimate their entropy, which is roughly the
+ * size that Huffman coding alone would reach. Comparing both tells how much the data gains from each kind of compression:
+ * <ul>
+ *     <li>nothing from either: the file is stored;</li>
+ *     <li>little more from string matching than from the byte frequencies alone: only Huffman coding is used, or the
+ *     {@code FILTERED} strategy when a few short matches still help;</li>
+ *     <li>otherwise the level follows the fast ratio: very redundant data is worth the best level, moderately compressible data
+ *     the default one, and data that barely compresses is deflated at the fastest level.</li>
+ * </ul>
+ * The sample costs one fast deflate of at most {@value #SAMPLE_SIZE} bytes, far less than deflating a whole file at a level
+ * that does not pay off. The thresholds are constants here, and every choice is logged with both ratios so they can be tuned.
+ */
+
+final class CodecSelector {
+
+    /** Bytes sampled from every file. */
+    static final int SAMPLE_SIZE = 64 * 1024;
+    /** Number of slices the sample of a larger file is taken from. */
+    static final int SLICES = 4;
+
+    /** Files whose fast ratio is at least this are stored. */
+    static final double STORE_RATIO = 0.95;
+    /** String matching must save at least this much over the entropy for the matching strategies to be used. */
+    static final double HUFFMAN_GAIN = 0.03;
+    /** String matching must save at least this much over the entropy for the default strategy to be used. */
+    static final double FILTERED_GAIN = 0.10;
+    /** Files whose fast ratio is below this are deflated at the best level. */
+    static final double BEST_RATIO = 0.35;
+    /** Files whose fast ratio is above this are deflated at the fastest level. */
+    static final double FASTEST_RATIO = 0.70;
+
+    /** Every codec that can be chosen, in the order of the report. */
+    static final List<Codec> CODECS = List.of(Codec.STORED, Codec.HUFFMAN_ONLY, Codec.FILTERED, Codec.BEST_SPEED, Codec.DEFAULT,
+            Codec.BEST_COMPRESSION);
+
+    private CodecSelector() {
+    }
+
+    /**
+     * Samples a file with positional reads, so the position of {@code channel} is left where it was. The sample goes through
+     * the input buffer and the fastest deflater of the current thread.
+     */
+    static Choice choose(FileChannel channel, BufferPool buffers) throws IOException {
+        ByteBuffer sample = buffers.input();
+        int sampleSize = Math.min(SAMPLE_SIZE, sample.capacity());
+        long size = channel.size();
+        if (size <= sampleSize) read(channel, sample.limit((int) size), 0);
+        else {
+            int slice = sampleSize / SLICES;
+            for (int i = 0; i < SLICES; i++) read(channel, sample.limit(sample.position() + slice), i * ((size - slice) / (SLICES - 1)));
+        }
+        sample.flip();
+        int length = sample.remaining();
+        if (length == 0) return new Choice(Codec.STORED, 0, 1, 1);
+
+        double entropy = entropy(sample) / 8;
+
+        Deflater deflater = buffers.deflater(Deflater.BEST_SPEED);
+        deflater.setInput(sample);
+        deflater.finish();
+        ByteBuffer output = buffers.output();
+        long compressed = 0;
+        while (!deflater.finished()) compressed += deflater.deflate(output.clear());
+
+        double ratio = (double) compressed / length;
+        return new Choice(decide(ratio, entropy), length, ratio, entropy);
+    }
+
+    /** Reads from {@code position} until the buffer is full or the file ends. */
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        for (int n; buffer.hasRemaining(); position += n)
+            if ((n = channel.read(buffer, position)) <= 0) break;
+    }
+
+    /**
+     * Picks the codec for a sample that deflated to {@code ratio} of its size at the fastest level and whose entropy is
+     * {@code entropy} of its size.
+     */
+    static Codec decide(double ratio, double entropy) {
+        if (ratio >= STORE_RATIO) return Codec.STORED;
+        if (ratio > entropy - HUFFMAN_GAIN) return Codec.HUFFMAN_ONLY;
+        if (ratio > entropy - FILTERED_GAIN) return Codec.FILTERED;
+        if (ratio < BEST_RATIO) return Codec.BEST_COMPRESSION;
+        if (ratio > FASTEST_RATIO) return Codec.BEST_SPEED;
+        return Codec.DEFAULT;
+    }
+
+    /** Returns the order-0 entropy of the remaining bytes in bits per byte, without moving the buffer. */
+    private static double entropy(ByteBuffer data) {
+        int[] counts = new int[256];
+        for (int i = data.position(); i < data.limit(); i++) counts[data.get(i) & 0xFF]++;
+        double bits = 0, length = data.remaining();
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = count / length;
+            bits -= p * Math.log(p);
+        }
+        return bits / Math.log(2);
+    }
+
+    /**
+     * The codec chosen for a file and the measurements of the sample that decided it.
+     *
+     * @param sampleBytes bytes sampled
+     * @param ratio       size of the sample deflated at the fastest level, relative to its size
+     * @param entropy     order-0 entropy of the sample, relative to its size
+     */
+    record Choice(Codec codec, int sampleBytes, double ratio, double entropy) {
+
+        String describe(String name) {
+            return String.format("Auto codec for '%s': %s (%s sampled, %.1f%% fast deflate, %.1f%% entropy)", name, codec.name(),
+                    Utils.formatFileSize(sampleBytes), ratio * 100, entropy * 100);
+        }
+
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.aocompressor;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Maps entry names to the compression method and level used to store them.
+ * <p>
+ * A profile is an ordered list of rules; the first rule whose glob matches the entry name (and whose minimum size is reached)
+ * decides the codec, and files that match no rule use the default codec. Globs without a {@code /} are matched against the
+ * file name only, so {@code *.png} matches PNG files in any folder. Matching is case-insensitive.
+ */
+
+public final class CompressionProfile {
+
+    private static final String[] MEDIA = {"*.png", "*.jpg", "*.jpeg", "*.gif", "*.ogg", "*.mp3", "*.wma", "*.avi", "*.mp4", "*.zip", "*.ao"};
+    private static final String[] TEXT = {"*.ini", "*.dat", "*.txt", "*.json", "*.xml", "*.csv"};
+
+    /** Deflates every file at the default level, which is what the compressor always did. */
+    public static final CompressionProfile DEFAULT = new CompressionProfile("Default", Codec.DEFAULT);
+
+    /** Stores already compressed media, squeezes text files and deflates large binaries at the fastest level. */
+    public static final CompressionProfile RESOURCES = new CompressionProfile("Resources", Codec.DEFAULT)
+            .rule(Codec.STORED, MEDIA)
+            .rule(Codec.BEST_COMPRESSION, TEXT)
+            .rule(Codec.BEST_SPEED, 16 * 1024 * 1024, "*");
+
+    /** Stores already compressed media and deflates everything else at the fastest level. */
+    public static final CompressionProfile FASTEST = new CompressionProfile("Fastest", Codec.BEST_SPEED)
+            .rule(Codec.STORED, MEDIA);
+
+    /** Deflates every file at the best level, including media. */
+    public static final CompressionProfile SMALLEST = new CompressionProfile("Smallest", Codec.BEST_COMPRESSION);
+
+    /** Stores known media and lets a sample of every other file decide its codec, for trees full of custom formats. */
+    public static final CompressionProfile AUTO = new CompressionProfile("Auto", Codec.AUTO)
+            .rule(Codec.STORED, MEDIA);
+
+    private final String name;
+    private final Codec defaultCodec;
+    private final List<Rule> rules = new ArrayList<>();
+
+    public CompressionProfile(String name, Codec defaultCodec) {
+        this.name = name;
+        this.defaultCodec = defaultCodec;
+    }
+
+    public static List<CompressionProfile> presets() {
+        return List.of(DEFAULT, RESOURCES, FASTEST, SMALLEST, AUTO);
+    }
+
+    /**
+     * Parses a profile from lines in the form {@code <glob>[ >=<bytes>] = <codec>}, where codec is one of {@code stored},
+     * {@code fastest}, {@code default}, {@code best}, {@code filtered}, {@code huffman} or {@code auto}. The glob {@code *}
+     * without a minimum size sets the default codec. Blank lines and lines starting with {@code #} are ignored.
+     */
+    public static CompressionProfile parse(String name, List<String> lines) {
+        CompressionProfile profile = new CompressionProfile(name, Codec.DEFAULT);
+        Codec defaultCodec = Codec.DEFAULT;
+        for (String line : lines) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            int eq = line.lastIndexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Invalid profile rule: " + line);
+            Codec codec = Codec.of(line.substring(eq + 1).strip());
+            String[] pattern = line.substring(0, eq).strip().split("\\s*>=\\s*");
+            long minSize = pattern.length > 1 ? Long.parseLong(pattern[1]) : 0;
+            if (pattern[0].equals("*") && minSize == 0) defaultCodec = codec;
+            else profile.rule(codec, minSize, pattern[0]);
+        }
+        return defaultCodec == Codec.DEFAULT ? profile : profile.withDefault(defaultCodec);
+    }
+
+    /** Adds a rule that applies {@code codec} to the entries matching any of the globs. */
+    public CompressionProfile rule(Codec codec, String... globs) {
+        return rule(codec, 0, globs);
+    }
+
+    /** Adds a rule that applies {@code codec} to the entries of at least {@code minSize} bytes matching any of the globs. */
+    public CompressionProfile rule(Codec codec, long minSize, String... globs) {
+        for (String glob : globs) rules.add(new Rule(glob, minSize, codec));
+        return this;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Returns the index of the rule that applies to the entry, or {@code -1} if the default codec applies. */
+    int match(String entryName, long size) {
+        String lowerName = entryName.toLowerCase(Locale.ROOT);
+        Path path = Path.of(lowerName), fileName = path.getFileName();
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            if (size >= rule.minSize() && rule.matcher().matches(rule.glob().contains("/") ? path : fileName)) return i;
+        }
+        return -1;
+    }
+
+    Codec codec(int rule) {
+        return rule < 0 ? defaultCodec : rules.get(rule).codec();
+    }
+
+    /** Describes a rule (or the default codec for {@code -1}) for the report. */
+    String describe(int rule) {
+        if (rule < 0) return "* = " + defaultCodec.name();
+        Rule r = rules.get(rule);
+        return r.glob() + (r.minSize() > 0 ? " >= " + Utils.formatFileSize(r.minSize()) : "") + " = " + r.codec().name();
+    }
+
+    int ruleCount() {
+        return rules.size();
+    }
+
+    private CompressionProfile withDefault(Codec codec) {
+        CompressionProfile profile = new CompressionProfile(name, codec);
+        profile.rules.addAll(rules);
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * A compression method, level and deflate strategy.
+     */
+    public record Codec(String name, int method, int level, int strategy) {
+
+        public static final Codec STORED = new Codec("stored", ZipEntry.STORED, Deflater.NO_COMPRESSION);
+        public static final Codec BEST_SPEED = new Codec("fastest", ZipEntry.DEFLATED, Deflater.BEST_SPEED);
+        public static final Codec DEFAULT = new Codec("default", ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION);
+        public static final Codec BEST_COMPRESSION = new Codec("best", ZipEntry.DEFLATED, Deflater.BEST_COMPRESSION);
+        /** Favors Huffman coding over string matching, for data made of small values with little repetition. */
+        public static final Codec FILTERED = new Codec("filtered", ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION, Deflater.FILTERED);
+        /** Only Huffman codes the bytes, which is as small as deflating when nothing repeats and much faster. */
+        public static final Codec HUFFMAN_ONLY = new Codec("huffman", ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY);
+        /** Chosen for every file by trial-compressing a sample of it, see {@link CodecSelector}. */
+        public static final Codec AUTO = new Codec("auto", -1, Deflater.DEFAULT_COMPRESSION);
+
+        public Codec(String name, int method, int level) {
+            this(name, method, level, Deflater.DEFAULT_STRATEGY);
+        }
+
+        public static Codec of(String name) {
+            return switch (name.toLowerCase(Locale.ROOT)) {
+                case "stored" -> STORED;
+                case "fastest" -> BEST_SPEED;
+                case "default" -> DEFAULT;
+                case "best" -> BEST_COMPRESSION;
+                case "filtered" -> FILTERED;
+                case "huffman" -> HUFFMAN_ONLY;
+                case "auto" -> AUTO;
+                default -> throw new IllegalArgumentException("Unknown codec: " + name);
+            };
+        }
+
+        /** Returns whether the codec is only decided per file, by {@link CodecSelector}. */
+        public boolean isAuto() {
+            return method < 0;
+        }
+
+    }
+
+    private record Rule(String glob, long minSize, Codec codec, PathMatcher matcher) {
+
+        Rule(String glob, long minSize, Codec codec) {
+            this(glob, minSize, codec, FileSystems.getDefault().getPathMatcher("glob:" + glob.toLowerCase(Locale.ROOT)));
+        }
+
+    }
+
+}
@@ -1,18 +1,46 @@
 package org.aocompressor;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Enumeration;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipException;
 
 /**
  * The Compressor class provides functionality to compress files into a ZIP archive and decompress files from a ZIP archive. It
@@ -21,129 +49,1454 @@ import java.util.zip.ZipOutputStream;
 
 public class Compressor {
 
+    /** Files up to this size are deflated in memory by the worker threads. */
+    static final long IN_MEMORY_LIMIT = 8 * 1024 * 1024;
+
+    /** Bytes copied by each {@code transferTo} call when extracting stored entries, so progress and limits advance. */
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    /** Number of threads used to deflate and extract files. */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /** Decides the compression method and level of every file. */
+    private CompressionProfile profile = CompressionProfile.DEFAULT;
+
+    /** Stores files with identical content once and records the copies in an {@link AliasManifest}. */
+    private boolean deduplicate;
+
+    /** Deflates the small files with a {@link PresetDictionary} trained from them. */
+    private boolean presetDictionary;
+
+    /** Files of at least this size are deflated in blocks by every thread, see {@link ChunkedDeflater}. */
+    private long chunkThreshold = ChunkedDeflater.DEFAULT_THRESHOLD;
+
+    /** Order in which the files are laid out in the archive. */
+    private EntryOrder order = EntryOrder.PATH;
+
+    /** Limits that stop an extraction of a malicious or corrupt archive. */
+    private ExtractionLimits limits = ExtractionLimits.DEFAULT;
+
+    /** Copy buffers and codecs reused by every file of the compressions and extractions. */
+    private BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE);
+
+    /** Receives the codec chosen for every file compressed with the auto codec and the training of the preset dictionary. */
+    private Consumer<String> logger = message -> {
+    };
+
+    /**
+     * Sets the number of threads used to deflate and extract files. A value of 1 processes the files one after another on the
+     * calling thread.
+     */
+    public Compressor threads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the compression profile applied to the files of the next compressions.
+     */
+    public Compressor profile(CompressionProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * Enables storing files with identical content only once. The other copies are recorded as aliases and restored by
+     * {@link #decompress(String, String, Consumer)} and {@link AoArchive}.
+     */
+    public Compressor deduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+    /**
+     * Enables deflating the files of up to {@value PresetDictionary#MAX_FILE_SIZE} bytes with a preset dictionary trained from
+     * a sample of them and stored in the archive. {@link #decompress(String, String, Consumer)} and {@link AoArchive} apply it
+     * transparently.
+     */
+    public Compressor presetDictionary(boolean presetDictionary) {
+        this.presetDictionary = presetDictionary;
+        return this;
+    }
+
+    /**
+     * Sets the size from which a deflated file is split into blocks of {@value ChunkedDeflater#BLOCK_SIZE} bytes that every
+     * thread deflates, instead of the writer thread deflating it alone (16 MB by default). Files up to
+     * {@link #IN_MEMORY_LIMIT} are always deflated whole by a worker, and {@link Long#MAX_VALUE} turns the blocks off.
+     */
+    public Compressor chunkThreshold(long chunkThreshold) {
+        if (chunkThreshold < 1) throw new IllegalArgumentException("chunkThreshold must be positive: " + chunkThreshold);
+        this.chunkThreshold = chunkThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the order in which the files of the next compressions and updates are laid out, so the entries the client reads
+     * together are next to each other in the archive (by path by default).
+     */
+    public Compressor order(EntryOrder order) {
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * Sets the limits enforced while extracting. When one is crossed the extraction stops and the files it wrote are deleted.
+     */
+    public Compressor limits(ExtractionLimits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    /**
+     * Sets the size of the buffers used to read, write, deflate and inflate the data (256 KB by default). Larger buffers mean
+     * fewer system calls per file; every thread holds two of them.
+     */
+    public Compressor bufferSize(int bufferSize) {
+        this.buffers = new BufferPool(bufferSize);
+        return this;
+    }
+
+    /**
+     * Sets where the codec chosen for every file of the {@link CompressionProfile.Codec#AUTO} codec is logged, along with the
+     * sample ratios that decided it, and how the preset dictionary was trained. The lines are sent from the thread that called
+     * the compression.
+     */
+    public Compressor logger(Consumer<String> logger) {
+        this.logger = logger;
+        return this;
+    }
+
+    /**
+     * Walks a folder once with {@link #threads(int)} threads, collecting what {@link #compress(SourceManifest, String,
+     * ProgressListener)} and {@link #update(SourceManifest, String, ProgressListener)} need to know about its files.
+     */
+    public SourceManifest scan(File sourceDir) throws IOException {
+        return SourceManifest.scan(sourceDir.toPath(), threads);
+    }
+
     public Result compress(File sourceDir, String targetZip) {
-        Path sourcePath = sourceDir.toPath();
-        Path targetPath = Paths.get(targetZip);
+        return compress(sourceDir, targetZip, ProgressListener.NONE);
+    }
 
+    /**
+     * Compresses a folder, reporting the bytes compressed so far to {@code listener}.
+     */
+    public Result compress(File sourceDir, String targetZip, ProgressListener listener) {
+        RunReport report = new RunReport("compress", sourceDir.getPath(), targetZip, threads);
         try {
-            if (!hasFiles(sourcePath)) return Result.success(0, "No files to compress.");
+            return compress(scan(sourceDir, listener, report), targetZip, listener, report);
+        } catch (IOException | CancellationException e) {
+            return report.finish(failure("Compression", e));
+        }
+    }
+
+    /**
+     * Compresses the files of a manifest that was already scanned.
+     */
+    public Result compress(SourceManifest source, String targetZip, ProgressListener listener) {
+        return compress(source, targetZip, listener, new RunReport("compress", source.root().toString(), targetZip, threads));
+    }
 
-            int filesProcessed = compressToZip(sourcePath, targetPath);
-            return Result.success(filesProcessed, "Compression successful!");
+    private Result compress(SourceManifest source, String targetZip, ProgressListener listener, RunReport report) {
+        Path targetPath = Paths.get(targetZip);
 
-        } catch (IOException e) {
+        try (var tracker = new ProgressTracker(listener)) {
+            if (source.isEmpty()) return report.finish(Result.success(0, "No files to compress."));
+
+            Outcome outcome = compressToZip(source, targetPath, null, tracker, report);
+            return report.finish(Result.success(outcome.filesProcessed(), "Compression successful!", outcome.details()));
+
+        } catch (IOException | CancellationException e) {
             Utils.deletePath(targetPath);
-            return Result.failure("Compression failed!\n" + e.getMessage()); // TODO En que momento se muestra este mensaje?
+            return report.finish(failure("Compression", e));
+        } finally {
+            buffers.close();
+        }
+    }
+
+    /** Scans a folder until {@code listener} cancels it, timing the walk as the scan phase of the report. */
+    private SourceManifest scan(File sourceDir, ProgressListener listener, RunReport report) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return SourceManifest.scan(sourceDir.toPath(), threads, listener::cancelled);
+        } finally {
+            report.add(RunReport.Phase.SCAN, start);
+        }
+    }
+
+    /**
+     * Updates an existing archive with the current contents of {@code sourceDir}. Entries whose file did not change are copied
+     * as already compressed bytes, new or modified files are deflated, and entries whose file no longer exists are dropped. If
+     * {@code targetZip} does not exist yet, this is the same as {@link #compress(File, String)}.
+     */
+    public Result update(File sourceDir, String targetZip) {
+        return update(sourceDir, targetZip, ProgressListener.NONE);
+    }
+
+    /**
+     * Updates an archive, reporting the bytes compressed or copied so far to {@code listener}.
+     */
+    public Result update(File sourceDir, String targetZip, ProgressListener listener) {
+        RunReport report = new RunReport("update", sourceDir.getPath(), targetZip, threads);
+        try {
+            return update(scan(sourceDir, listener, report), targetZip, listener, report);
+        } catch (IOException | CancellationException e) {
+            return report.finish(failure("Update", e));
+        }
+    }
+
+    /**
+     * Updates an archive with the files of a manifest that was already scanned.
+     */
+    public Result update(SourceManifest source, String targetZip, ProgressListener listener) {
+        return update(source, targetZip, listener, new RunReport("update", source.root().toString(), targetZip, threads));
+    }
+
+    private Result update(SourceManifest source, String targetZip, ProgressListener listener, RunReport report) {
+        Path targetPath = Paths.get(targetZip);
+        if (!Files.isRegularFile(targetPath)) return compress(source, targetZip, listener, report);
+        Path tempPath = targetPath.resolveSibling(targetPath.getFileName() + ".tmp");
+
+        try (var tracker = new ProgressTracker(listener)) {
+            if (source.isEmpty()) return report.finish(Result.success(0, "No files to compress."));
+
+            Outcome outcome;
+            int previousFiles;
+            try (var channel = FileChannel.open(targetPath, StandardOpenOption.READ)) {
+                long start = System.nanoTime();
+                Map<String, CentralDirectory.Entry> entries = new HashMap<>();
+                for (CentralDirectory.Entry entry : CentralDirectory.read(channel))
+                    if (!entry.isDirectory()) entries.put(entry.name(), entry);
+                // Aliases point at the stored copy, so an unchanged alias is copied like any other entry
+                CentralDirectory.Entry manifest = entries.remove(AliasManifest.NAME);
+                if (manifest != null) {
+                    AliasManifest.parse(readEntry(channel, manifest)).forEach((alias, target) -> {
+                        CentralDirectory.Entry entry = entries.get(target);
+                        if (entry != null) entries.put(alias, entry);
+                    });
+                }
+                CentralDirectory.Entry dictionaryEntry = entries.remove(PresetDictionary.NAME);
+                byte[] dictionary = dictionaryEntry != null ? readEntry(channel, dictionaryEntry) : null;
+                report.add(RunReport.Phase.INDEX, start);
+                previousFiles = entries.size();
+                outcome = compressToZip(source, tempPath, new PreviousArchive(entries, channel, dictionary), tracker, report);
+            }
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+
+            int added = outcome.filesProcessed() - outcome.reused() - outcome.replaced();
+            int removed = previousFiles - outcome.reused() - outcome.replaced();
+            return report.finish(Result.success(outcome.filesProcessed(), String.format("Update successful! (%d unchanged, %d modified, %d added, %d removed)",
+                    outcome.reused(), outcome.replaced(), added, removed), outcome.details()));
+
+        } catch (IOException | CancellationException e) {
+            Utils.deletePath(tempPath);
+            return report.finish(failure("Update", e));
+        } finally {
+            buffers.close();
         }
     }
 
     public Result decompress(String sourceZip, String targetDir, Consumer<String> logger) {
+        return decompress(sourceZip, targetDir, logger, ProgressListener.NONE);
+    }
+
+    /**
+     * Decompresses an archive, reporting the bytes extracted so far to {@code listener}.
+     */
+    public Result decompress(String sourceZip, String targetDir, Consumer<String> logger, ProgressListener listener) {
+        return decompress(sourceZip, targetDir, EntrySelection.ALL, logger, listener);
+    }
+
+    /**
+     * Extracts only the entries of an archive that match {@code selection}. The entries are filtered by their name in the
+     * central directory, so the data of the rest is never read and the time depends on the size of the selection.
+     */
+    public Result decompress(String sourceZip, String targetDir, EntrySelection selection, Consumer<String> logger, ProgressListener listener) {
         Path sourcePath = Paths.get(sourceZip);
         Path targetPath = Paths.get(targetDir).resolve(Utils.getFileName(sourcePath) + "-decompressed");
+        RunReport report = new RunReport("decompress", sourceZip, targetPath.toString(), threads);
 
-        try {
+        try (var tracker = new ProgressTracker(listener)) {
             Files.createDirectories(targetPath);
-            int filesProcessed = decompressFromZip(sourcePath, targetPath, logger);
-            return Result.success(filesProcessed, "Decompression successful!");
+            Extraction extraction = decompressFromZip(sourcePath, targetPath, selection, logger, tracker, report);
+            if (extraction.corrupt() > 0)
+                return report.finish(Result.failure(String.format("Decompression failed! %d of %d entries are corrupt or truncated", extraction.corrupt(),
+                        extraction.matched())));
+            if (selection.isAll()) return report.finish(Result.success(extraction.filesProcessed(), "Decompression successful!"));
+            return report.finish(Result.success(extraction.filesProcessed(), String.format("Decompression successful! (%d matched, %d skipped)",
+                    extraction.matched(), extraction.skipped())));
 
-        } catch (IOException e) {
+        } catch (IOException | CancellationException e) {
             Utils.deletePath(targetPath);
-            return Result.failure("Decompression failed!\n" + e.getMessage());
+            return report.finish(failure("Decompression", e));
+        } finally {
+            buffers.close();
+        }
+    }
+
+    public Result verify(String sourceZip, Consumer<String> logger) {
+        return verify(sourceZip, logger, ProgressListener.NONE);
+    }
+
+    /**
+     * Checks that every entry of an archive inflates to the size and CRC recorded in its central directory, without writing
+     * anything to disk. Every corrupt or truncated entry is reported to {@code logger}, and the operation fails if there is any.
+     */
+    public Result verify(String sourceZip, Consumer<String> logger, ProgressListener listener) {
+        Path sourcePath = Paths.get(sourceZip);
+        RunReport report = new RunReport("verify", sourceZip, null, threads);
+
+        try (var tracker = new ProgressTracker(listener)) {
+            long start = System.nanoTime();
+            Verification verification = verifyZip(sourcePath, logger, tracker, report);
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            if (verification.corrupt() > 0)
+                return report.finish(Result.failure(String.format("Verification failed! %d of %d entries are corrupt or truncated", verification.corrupt(),
+                        verification.entries())));
+            return report.finish(Result.success(verification.entries(), "Verification successful!", List.of(String.format("%s inflated in %dms (%.1f MB/s)",
+                    Utils.formatFileSize(verification.bytes()), (long) (seconds * 1000), verification.bytes() / seconds / (1024 * 1024)))));
+
+        } catch (IOException | CancellationException e) {
+            return report.finish(failure("Verification", e));
+        } finally {
+            buffers.close();
+        }
+    }
+
+    public Result diff(String oldZip, String newZip, String patchZip) {
+        return diff(oldZip, newZip, patchZip, ProgressListener.NONE);
+    }
+
+    /**
+     * Creates a patch that rebuilds {@code newZip} from {@code oldZip} with {@link #patch(String, String, String)}.
+     * <p>
+     * An entry of the new archive is taken from the old one when the old archive has an entry with the same CRC and size, under
+     * the same name or any other, so renamed and moved files are not sent again. Every other entry is copied into the patch as
+     * raw compressed bytes, without inflating or deflating it. Entries deflated with a preset dictionary are only taken from
+     * the old archive if both archives have the same dictionary. The steps to rebuild the new archive are stored as a
+     * {@link PatchManifest}.
+     */
+    public Result diff(String oldZip, String newZip, String patchZip, ProgressListener listener) {
+        Path patchPath = Paths.get(patchZip);
+        RunReport report = new RunReport("diff", newZip, patchZip, 1);
+
+        try (var tracker = new ProgressTracker(listener);
+             var oldChannel = FileChannel.open(Paths.get(oldZip), StandardOpenOption.READ);
+             var newChannel = FileChannel.open(Paths.get(newZip), StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            Map<String, CentralDirectory.Entry> oldByName = new HashMap<>(), oldByContent = new HashMap<>();
+            for (CentralDirectory.Entry entry : CentralDirectory.read(oldChannel)) {
+                oldByName.put(entry.name(), entry);
+                oldByContent.putIfAbsent(entry.crc() + ":" + entry.size(), entry);
+            }
+            List<CentralDirectory.Entry> newEntries = CentralDirectory.read(newChannel);
+            CentralDirectory.Entry oldDictionary = oldByName.get(PresetDictionary.NAME), newDictionary = null;
+            for (CentralDirectory.Entry entry : newEntries)
+                if (entry.name().equals(PresetDictionary.NAME)) newDictionary = entry;
+            boolean sameDictionary = oldDictionary != null && newDictionary != null && oldDictionary.crc() == newDictionary.crc()
+                    && oldDictionary.size() == newDictionary.size();
+            tracker.total(newEntries.stream().mapToLong(CentralDirectory.Entry::size).sum());
+            report.add(RunReport.Phase.INDEX, start);
+
+            List<PatchManifest.Step> steps = new ArrayList<>(newEntries.size());
+            int added = 0, removed = oldByName.size();
+            try (var writer = new ZipWriter(patchPath, buffers.bufferSize(), report)) {
+                for (CentralDirectory.Entry entry : newEntries) {
+                    tracker.entry(entry.name());
+                    if (oldByName.containsKey(entry.name())) removed--;
+                    CentralDirectory.Entry base = oldByName.get(entry.name());
+                    if (!reusable(base, entry, sameDictionary)) base = oldByContent.get(entry.crc() + ":" + entry.size());
+                    if (reusable(base, entry, sameDictionary))
+                        steps.add(new PatchManifest.Step(entry.name(), entry.modifiedTime(), base.name(), entry.crc(), entry.size()));
+                    else {
+                        long copyStart = System.nanoTime();
+                        writer.copy(entry.name(), entry.modifiedTime(), entry, newChannel);
+                        report.entry(entry.name(), "copied", entry.size(), entry.compressedSize(), System.nanoTime() - copyStart);
+                        steps.add(new PatchManifest.Step(entry.name(), entry.modifiedTime(), null, 0, 0));
+                        added++;
+                    }
+                    tracker.add(entry.size());
+                }
+                writeDeflated(writer, PatchManifest.NAME, PatchManifest.format(steps));
+            }
+
+            long patchBytes = Files.size(patchPath), newBytes = newChannel.size();
+            return report.finish(Result.success(newEntries.size(), String.format("Patch created! (%d unchanged, %d added or modified, %d removed)",
+                    newEntries.size() - added, added, removed), List.of(String.format("%s patch for a %s archive (%.1f%%)",
+                    Utils.formatFileSize(patchBytes), Utils.formatFileSize(newBytes), newBytes > 0 ? 100.0 * patchBytes / newBytes : 0.0))));
+
+        } catch (IOException | CancellationException e) {
+            Utils.deletePath(patchPath);
+            return report.finish(failure("Patch creation", e));
+        } finally {
+            buffers.close();
         }
     }
 
-    private int compressToZip(Path sourceDir, Path targetZip) throws IOException {
-        int filesProcessed = 0;
+    public Result patch(String oldZip, String patchZip, String targetZip) {
+        return patch(oldZip, patchZip, targetZip, ProgressListener.NONE);
+    }
 
-        try (var fos = new FileOutputStream(targetZip.toFile());
-             var zos = new ZipOutputStream(fos, StandardCharsets.UTF_8);
-             var paths = Files.walk(sourceDir)) {
+    /**
+     * Rebuilds the new version of an archive from the old one and a patch created by {@link #diff(String, String, String)}.
+     * Every entry is copied as raw compressed bytes from one of the two archives, so nothing is inflated, deflated or extracted
+     * to disk. Before an entry is copied from the old archive, its CRC and size are checked against the patch, so a patch
+     * applied to the wrong archive fails instead of producing a broken one. {@code targetZip} may be {@code oldZip} itself.
+     */
+    public Result patch(String oldZip, String patchZip, String targetZip, ProgressListener listener) {
+        Path targetPath = Paths.get(targetZip);
+        Path tempPath = targetPath.resolveSibling(targetPath.getFileName() + ".tmp");
+        RunReport report = new RunReport("patch", patchZip, targetZip, 1);
 
-            var files = paths.filter(Files::isRegularFile).iterator();
+        try (var tracker = new ProgressTracker(listener)) {
+            int fromBase = 0, fromPatch = 0;
+            try (var oldChannel = FileChannel.open(Paths.get(oldZip), StandardOpenOption.READ);
+                 var patchChannel = FileChannel.open(Paths.get(patchZip), StandardOpenOption.READ)) {
+                long start = System.nanoTime();
+                Map<String, CentralDirectory.Entry> oldEntries = new HashMap<>(), patchEntries = new HashMap<>();
+                for (CentralDirectory.Entry entry : CentralDirectory.read(oldChannel)) oldEntries.put(entry.name(), entry);
+                for (CentralDirectory.Entry entry : CentralDirectory.read(patchChannel)) patchEntries.put(entry.name(), entry);
+                CentralDirectory.Entry manifest = patchEntries.remove(PatchManifest.NAME);
+                if (manifest == null) throw new ZipException("'" + patchZip + "' is not a patch");
+                List<PatchManifest.Step> steps = PatchManifest.parse(readEntry(patchChannel, manifest));
+                tracker.total(steps.stream().mapToLong(step -> {
+                    CentralDirectory.Entry entry = step.source() == null ? patchEntries.get(step.name()) : oldEntries.get(step.source());
+                    return entry != null ? entry.size() : 0;
+                }).sum());
+                report.add(RunReport.Phase.INDEX, start);
 
-            while (files.hasNext()) {
-                Path file = files.next();
-                if (addFileToZip(sourceDir, file, zos)) filesProcessed++;
-                else throw new IOException();
+                try (var writer = new ZipWriter(tempPath, buffers.bufferSize(), report)) {
+                    for (PatchManifest.Step step : steps) {
+                        tracker.entry(step.name());
+                        long copyStart = System.nanoTime();
+                        CentralDirectory.Entry entry;
+                        if (step.source() == null) {
+                            entry = patchEntries.get(step.name());
+                            if (entry == null) throw new ZipException("The patch lacks the entry '" + step.name() + "'");
+                            writer.copy(step.name(), step.modifiedTime(), entry, patchChannel);
+                            fromPatch++;
+                        } else {
+                            entry = oldEntries.get(step.source());
+                            if (entry == null || entry.crc() != step.crc() || entry.size() != step.size())
+                                throw new ZipException("The archive does not match the patch: '" + step.source() + "' is " + (entry == null ? "missing" : "different"));
+                            writer.copy(step.name(), step.modifiedTime(), entry, oldChannel);
+                            fromBase++;
+                        }
+                        report.entry(step.name(), step.source() == null ? "patched" : "copied", entry.size(), entry.compressedSize(),
+                                System.nanoTime() - copyStart);
+                        tracker.add(entry.size());
+                    }
+                }
             }
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            return report.finish(Result.success(fromBase + fromPatch, String.format("Patch applied! (%d entries copied from the archive, %d from the patch)",
+                    fromBase, fromPatch)));
+
+        } catch (IOException | CancellationException e) {
+            Utils.deletePath(tempPath);
+            return report.finish(failure("Patch", e));
+        } finally {
+            buffers.close();
         }
+    }
 
-        return filesProcessed;
+    /**
+     * The result of an operation that threw, which only says it was cancelled when the {@link ProgressListener} asked for it.
+     */
+    private static Result failure(String operation, Exception e) {
+        if (e instanceof CancellationException) return Result.failure(operation + " cancelled.");
+        return Result.failure(operation + " failed!\n" + e.getMessage());
     }
 
-    private int decompressFromZip(Path sourceZip, Path targetDir, Consumer<String> logger) throws IOException {
-        int filesProcessed = 0;
+    /**
+     * Returns whether the raw data of an entry of the old archive can stand for an entry of the new one.
+     */
+    private static boolean reusable(CentralDirectory.Entry base, CentralDirectory.Entry entry, boolean sameDictionary) {
+        return base != null && base.crc() == entry.crc() && base.size() == entry.size() && base.isDirectory() == entry.isDirectory()
+                && (!base.dictionary() || sameDictionary);
+    }
 
-        try (var zipFile = new ZipFile(sourceZip.toFile(), StandardCharsets.UTF_8)) {
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+    /** Names the method of an entry for the {@link RunReport}. */
+    private static String methodName(CentralDirectory.Entry entry) {
+        return switch (entry.method()) {
+            case ZipEntry.STORED -> "stored";
+            case ZipEntry.DEFLATED -> entry.dictionary() ? "deflated with dictionary" : "deflated";
+            default -> "method " + entry.method();
+        };
+    }
 
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                File targetFile = targetDir.resolve(entry.getName()).toFile();
+    /**
+     * Compresses every file of {@code source} into {@code targetZip}.
+     * <p>
+     * Files are deflated concurrently by a pool of {@link #threads(int)} workers and written to the archive in the
+     * {@link #order(EntryOrder)} of the files, by relative path unless set, so the same folder always produces the same entry
+     * layout. At most {@code threads * 2} deflated files are held in memory at a time; files larger than
+     * {@link #IN_MEMORY_LIMIT} are streamed by the writer thread when their turn comes instead of being buffered.
+     * <p>
+     * With {@link #presetDictionary(boolean)}, a dictionary is trained from the small files before the workers start and the
+     * small deflated files are compressed with it. An update keeps the dictionary of the previous archive instead, so the
+     * unchanged entries that were deflated with it can still be copied as they are. The dictionary is written after the files,
+     * and only if an entry uses it.
+     *
+     * @param previous archive whose unchanged entries are copied as is, or {@code null} to compress every file
+     */
+    private Outcome compressToZip(SourceManifest source, Path targetZip, PreviousArchive previous, ProgressTracker tracker, RunReport report)
+            throws IOException {
+        // Laid out before deduplication, so the stored copy of duplicates is the one read first
+        List<SourceManifest.Entry> files = order.sort(source.files());
+        if (order.isTrace()) logger.accept(String.format("%s: %d of %d files were read in the trace, the rest follow by folder", order.name(),
+                order.traced(files), files.size()));
+        tracker.total(source.totalBytes());
 
-                if (!isWithinDirectory(targetDir.toFile(), targetFile)) {
-                    logger.accept("Skipping file outside target directory: " + entry.getName());
-                    continue;
+        int reused = 0, replaced = 0, fileCount = files.size(), dictionaryFiles = 0;
+        long duplicateBytes = 0, dictionaryInput = 0, dictionaryOutput = 0;
+        Map<String, String> aliases = Map.of();
+        ProfileStats stats = new ProfileStats(profile);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try (var writer = new ZipWriter(targetZip, buffers.bufferSize(), report)) {
+            if (deduplicate) {
+                aliases = findDuplicates(files, pool, tracker, report);
+                List<SourceManifest.Entry> unique = new ArrayList<>(files.size() - aliases.size());
+                for (SourceManifest.Entry file : files) {
+                    if (!aliases.containsKey(file.name())) unique.add(file);
+                    else {
+                        duplicateBytes += file.size();
+                        // An alias writes no data of its own, any change is accounted to the stored copy
+                        if (previous != null && previous.entries().containsKey(file.name())) reused++;
+                    }
                 }
+                files = unique;
+                tracker.add(duplicateBytes);
+            }
+
+            byte[] dictionary = previous != null ? previous.dictionary() : null;
+            if (dictionary == null && presetDictionary) dictionary = trainDictionary(files, tracker, report);
+            byte[] fileDictionary = presetDictionary ? dictionary : null;
 
-                if (entry.isDirectory()) Files.createDirectories(targetFile.toPath());
-                else if (extractFileFromZip(zipFile, entry, targetFile)) filesProcessed++;
+            Deque<Future<PreparedFile>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < files.size() || !pending.isEmpty()) {
+                // Keep the workers busy while the writer waits for the oldest entry
+                while (next < files.size() && pending.size() < threads * 2) {
+                    SourceManifest.Entry file = files.get(next++);
+                    pending.add(submit(pool, () -> prepare(file, previous, fileDictionary, stats, tracker, report)));
+                }
+                long waitStart = System.nanoTime();
+                PreparedFile prepared = await(pending.poll());
+                long writeStart = report.add(RunReport.Phase.WAIT, waitStart);
+                tracker.entry(prepared.name());
+                if (prepared.previous() != null) {
+                    writer.copy(prepared.name(), prepared.modifiedTime(), prepared.previous(), previous.channel());
+                    report.entry(prepared.name(), "copied", prepared.size(), prepared.previous().compressedSize(), System.nanoTime() - writeStart);
+                    tracker.add(prepared.size());
+                    if (prepared.previous().dictionary()) dictionaryFiles++;
+                    reused++;
+                    continue;
+                }
+                if (previous != null && previous.entries().containsKey(prepared.name())) replaced++;
+                if (prepared.data() == null) addFileToZip(prepared, writer, pool, stats, tracker, report);
+                else {
+                    if (prepared.choice() != null) logger.accept(prepared.choice().describe(prepared.name()));
+                    writer.write(prepared.name(), prepared.modifiedTime(), prepared.codec().method(), prepared.crc(), prepared.size(),
+                            prepared.data(), 0, prepared.length(), prepared.dictionary());
+                    buffers.give(prepared.data());
+                    if (prepared.dictionary()) {
+                        dictionaryFiles++;
+                        dictionaryInput += prepared.size();
+                        dictionaryOutput += prepared.length();
+                    }
+                    tracker.add(prepared.size());
+                }
             }
+
+            if (!aliases.isEmpty()) writeDeflated(writer, AliasManifest.NAME, AliasManifest.format(aliases));
+            if (dictionaryFiles > 0) writeDeflated(writer, PresetDictionary.NAME, dictionary);
+        } finally {
+            if (pool != null) shutdown(pool);
         }
 
-        return filesProcessed;
+        DictionaryUse dictionaryUse = new DictionaryUse(dictionaryFiles, dictionaryInput, dictionaryOutput);
+        return new Outcome(fileCount, reused, replaced, aliases.size(), duplicateBytes, stats, dictionaryUse, source.totalBytes(), Files.size(targetZip));
+    }
+
+    /**
+     * Extracts the entries of {@code sourceZip} that match {@code selection} into {@code targetDir}.
+     * <p>
+     * The central directory is read first, and the entries that do not match are dropped from it before anything else, so
+     * their data is never read. The names of the rest are validated lexically by an {@link ExtractionPlan}, along with the
+     * aliases of the {@link AliasManifest}; a selected alias whose stored copy is not selected gets the data of the copy
+     * extracted straight to its own path. Every folder of the tree is then created once, up front on the calling thread.
+     * <p>
+     * The file entries are shared by {@link #threads(int)} workers that pull the next pending entry until none are left, so a
+     * few large entries do not leave the rest of the workers idle. The workers read the raw data with positional reads on a
+     * single channel: stored entries are copied straight to the target file with {@link FileChannel#transferTo}, so the kernel
+     * moves the data without passing it through the heap, and deflated entries are inflated between the direct buffers of the
+     * {@link BufferPool}, with the {@link PresetDictionary} of the archive when they were deflated with it. Once every file is
+     * written, the remaining aliases are restored as copies of their target.
+     * <p>
+     * An entry that cannot be extracted, or that does not inflate to the size and CRC of the central directory, is reported to
+     * {@code logger} and its file is deleted, so no corrupt data is left behind; the rest of the entries are still extracted,
+     * and the aliases of a corrupt entry are skipped as missing.
+     * <p>
+     * The {@link #limits(ExtractionLimits)} are checked against the declared sizes before anything is written and against the
+     * bytes actually written while the data is streamed. If one is crossed, the workers stop, the files written so far and the
+     * folders created are deleted, and the {@link ExtractionLimits.LimitExceededException} is thrown.
+     */
+    private Extraction decompressFromZip(Path sourceZip, Path targetDir, EntrySelection selection, Consumer<String> logger, ProgressTracker tracker,
+                                         RunReport report) throws IOException {
+        try (var channel = FileChannel.open(sourceZip, StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            List<CentralDirectory.Entry> entries = CentralDirectory.read(channel);
+            limits.checkEntries(entries.size());
+            ExtractionPlan plan = new ExtractionPlan(targetDir);
+            List<CentralDirectory.Entry> files = new ArrayList<>();
+            List<Path> targets = new ArrayList<>();
+            Map<Path, Path> aliases = new LinkedHashMap<>();
+            Map<String, CentralDirectory.Entry> unselected = new HashMap<>();
+            CentralDirectory.Entry manifest = null, dictionaryEntry = null;
+            long declaredBytes = 0;
+            int skipped = 0;
+
+            for (CentralDirectory.Entry entry : entries) {
+                if (entry.name().equals(AliasManifest.NAME)) {
+                    manifest = entry;
+                    continue;
+                }
+                if (entry.name().equals(PresetDictionary.NAME)) {
+                    dictionaryEntry = entry;
+                    continue;
+                }
+                if (!selection.matches(entry.name())) {
+                    if (!entry.isDirectory()) {
+                        skipped++;
+                        if (!selection.isAll()) unselected.put(entry.name(), entry);
+                    }
+                    continue;
+                }
+                Path target = plan.resolve(entry.name());
+
+                if (target == null) {
+                    logger.accept("Skipping file outside target directory: " + entry.name());
+                    continue;
+                }
+
+                if (entry.isDirectory()) plan.addDirectory(target);
+                else {
+                    declaredBytes += entry.size();
+                    limits.check(entry.name(), entry.size(), entry.compressedSize(), declaredBytes);
+                    plan.addFile(target);
+                    files.add(entry);
+                    targets.add(target);
+                }
+            }
+
+            if (manifest != null) {
+                limits.check(manifest.name(), manifest.size(), manifest.compressedSize(), 0);
+                for (Map.Entry<String, String> alias : AliasManifest.parse(readEntry(channel, manifest)).entrySet()) {
+                    if (!selection.matches(alias.getKey())) {
+                        skipped++;
+                        continue;
+                    }
+                    // Aliases are validated like any other entry, both the alias and its target
+                    Path aliasFile = plan.resolve(alias.getKey());
+                    Path targetFile = plan.resolve(alias.getValue());
+                    if (aliasFile == null || targetFile == null) {
+                        logger.accept("Skipping alias outside target directory: " + alias.getKey());
+                        continue;
+                    }
+                    plan.addFile(aliasFile);
+                    CentralDirectory.Entry stored = unselected.get(alias.getValue());
+                    if (stored == null) aliases.put(aliasFile, targetFile);
+                    else {
+                        declaredBytes += stored.size();
+                        limits.check(alias.getKey(), stored.size(), stored.compressedSize(), declaredBytes);
+                        files.add(stored);
+                        targets.add(aliasFile);
+                    }
+                }
+            }
+            int matched = files.size() + aliases.size();
+
+            // Only read when a selected entry needs it
+            byte[] presetDictionary = null;
+            if (dictionaryEntry != null && files.stream().anyMatch(CentralDirectory.Entry::dictionary)) {
+                limits.check(dictionaryEntry.name(), dictionaryEntry.size(), dictionaryEntry.compressedSize(), 0);
+                presetDictionary = readEntry(channel, dictionaryEntry);
+            }
+            start = report.add(RunReport.Phase.INDEX, start);
+
+            limits.checkEntries(entries.size() + aliases.size());
+            plan.createDirectories();
+            report.add(RunReport.Phase.DIRECTORIES, start);
+            int accepted = 0;
+            for (int i = 0; i < files.size(); i++) {
+                if (!plan.accepts(targets.get(i))) {
+                    logger.accept("Skipping file outside target directory: " + files.get(i).name());
+                    continue;
+                }
+                files.set(accepted, files.get(i));
+                targets.set(accepted++, targets.get(i));
+            }
+            files.subList(accepted, files.size()).clear();
+            targets.subList(accepted, targets.size()).clear();
+            tracker.total(files.stream().mapToLong(CentralDirectory.Entry::size).sum());
+
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger filesProcessed = new AtomicInteger();
+            AtomicInteger corrupt = new AtomicInteger();
+            AtomicLong totalBytes = new AtomicLong();
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            byte[] dictionary = presetDictionary;
+            Runnable worker = () -> {
+                int i;
+                try {
+                    while (failure.get() == null && (i = next.getAndIncrement()) < files.size()) {
+                        CentralDirectory.Entry entry = files.get(i);
+                        tracker.entry(entry.name());
+                        long entryStart = System.nanoTime();
+                        String problem = null;
+                        try {
+                            problem = extractEntry(channel, entry, dictionary, targets.get(i), tracker, totalBytes, report);
+                        } catch (ExtractionLimits.LimitExceededException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                        report.entry(entry.name(), methodName(entry), entry.size(), entry.compressedSize(), System.nanoTime() - entryStart);
+                        if (failure.get() != null || tracker.cancelled()) continue;
+                        if (problem == null) filesProcessed.incrementAndGet();
+                        else {
+                            corrupt.incrementAndGet();
+                            Utils.deletePath(targets.get(i));
+                            synchronized (logger) {
+                                logger.accept("Entry '" + entry.name() + "' " + problem);
+                            }
+                        }
+                    }
+                } catch (CancellationException e) {
+                    // Every worker stops at its next buffer, and what they wrote is rolled back below
+                }
+            };
+
+            int workers = Math.min(threads, files.size());
+            if (workers <= 1) worker.run();
+            else {
+                ExecutorService pool = Executors.newFixedThreadPool(workers);
+                try {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (int w = 0; w < workers; w++) futures.add(pool.submit(worker));
+                    for (Future<?> future : futures) await(future);
+                } finally {
+                    shutdown(pool);
+                }
+            }
+            if (failure.get() != null || tracker.cancelled()) {
+                plan.rollBack(targets.subList(0, Math.min(next.get(), targets.size())));
+                if (failure.get() != null) throw failure.get();
+                throw new CancellationException("Cancelled");
+            }
+
+            List<Path> copies = new ArrayList<>();
+            for (Map.Entry<Path, Path> alias : aliases.entrySet()) {
+                if (!plan.accepts(alias.getKey())) {
+                    logger.accept("Skipping alias outside target directory: " + plan.root().relativize(alias.getKey()));
+                    continue;
+                }
+                if (!Files.isRegularFile(alias.getValue(), LinkOption.NOFOLLOW_LINKS)) {
+                    logger.accept("Skipping alias of a missing file: " + plan.root().relativize(alias.getKey()));
+                    continue;
+                }
+                try {
+                    long size = Files.size(alias.getValue());
+                    limits.check(plan.root().relativize(alias.getKey()).toString(), size, size, totalBytes.addAndGet(size));
+                } catch (ExtractionLimits.LimitExceededException e) {
+                    copies.addAll(targets);
+                    plan.rollBack(copies);
+                    throw e;
+                }
+                copies.add(alias.getKey());
+                long copyStart = System.nanoTime();
+                Files.copy(alias.getValue(), alias.getKey(), StandardCopyOption.REPLACE_EXISTING);
+                report.entry(plan.root().relativize(alias.getKey()).toString(), "alias", Files.size(alias.getKey()), 0,
+                        report.add(RunReport.Phase.WRITE, copyStart) - copyStart);
+                filesProcessed.incrementAndGet();
+            }
+
+            return new Extraction(filesProcessed.get(), corrupt.get(), matched, skipped);
+        }
     }
 
+    /**
+     * Inflates every entry of {@code sourceZip} into the output buffer of a worker and throws the data away, checking its size
+     * and CRC.
+     * <p>
+     * The entries are shared by {@link #threads(int)} workers like in
+     * {@link #decompressFromZip(Path, Path, EntrySelection, Consumer, ProgressTracker, RunReport)}, largest first so a large
+     * entry picked up last does not leave the rest of the workers idle at the end. Every worker reads with positional reads on
+     * a single channel, so the archive is opened once however many workers there are.
+     */
+    private Verification verifyZip(Path sourceZip, Consumer<String> logger, ProgressTracker tracker, RunReport report) throws IOException {
+        try (var channel = FileChannel.open(sourceZip, StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            List<CentralDirectory.Entry> entries = new ArrayList<>();
+            for (CentralDirectory.Entry entry : CentralDirectory.read(channel))
+                if (!entry.isDirectory()) entries.add(entry);
+            entries.sort((a, b) -> Long.compare(b.compressedSize(), a.compressedSize()));
+            tracker.total(entries.stream().mapToLong(CentralDirectory.Entry::size).sum());
 
-    private boolean addFileToZip(Path sourceDir, Path file, ZipOutputStream zos) {
-        String entryName = sourceDir.relativize(file).toString().replace('\\', '/');
+            byte[] presetDictionary = null;
+            for (CentralDirectory.Entry entry : entries) {
+                if (!entry.name().equals(PresetDictionary.NAME)) continue;
+                try {
+                    presetDictionary = readEntry(channel, entry);
+                } catch (IOException e) {
+                    // Reported as corrupt with the rest of the entries, along with every entry that needs it
+                }
+                break;
+            }
+            report.add(RunReport.Phase.INDEX, start);
+
+            byte[] dictionary = presetDictionary;
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger corrupt = new AtomicInteger();
+            LongAdder bytes = new LongAdder();
+            Runnable worker = () -> {
+                int i;
+                try {
+                    while ((i = next.getAndIncrement()) < entries.size()) {
+                        CentralDirectory.Entry entry = entries.get(i);
+                        tracker.entry(entry.name());
+                        long entryStart = System.nanoTime();
+                        String problem = checkEntry(channel, entry, dictionary, tracker, bytes, report);
+                        report.entry(entry.name(), methodName(entry), entry.size(), entry.compressedSize(), System.nanoTime() - entryStart);
+                        if (problem != null) {
+                            corrupt.incrementAndGet();
+                            synchronized (logger) {
+                                logger.accept("Entry '" + entry.name() + "' " + problem);
+                            }
+                        }
+                    }
+                } catch (CancellationException e) {
+                    // Every worker stops at its next buffer
+                }
+            };
+
+            int workers = Math.min(threads, entries.size());
+            if (workers <= 1) worker.run();
+            else {
+                ExecutorService pool = Executors.newFixedThreadPool(workers);
+                try {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (int w = 0; w < workers; w++) futures.add(pool.submit(worker));
+                    for (Future<?> future : futures) await(future);
+                } finally {
+                    shutdown(pool);
+                }
+            }
+
+            if (tracker.cancelled()) throw new CancellationException("Cancelled");
+            return new Verification(entries.size(), corrupt.get(), bytes.sum());
+        }
+    }
+
+    /**
+     * Reads an entry through the input buffer of the current thread and inflates it into the output buffer, updating the CRC
+     * from the output buffer instead of writing it anywhere.
+     *
+     * @param dictionary preset dictionary of the archive, or {@code null} if it has none or it could not be read
+     * @return what is wrong with the entry, or {@code null} if its size and CRC match the central directory
+     */
+    private String checkEntry(FileChannel source, CentralDirectory.Entry entry, byte[] dictionary, ProgressTracker tracker, LongAdder bytes,
+                              RunReport report) {
+        if (entry.method() != ZipEntry.STORED && entry.method() != ZipEntry.DEFLATED) return "uses an unsupported compression method " + entry.method();
+        if (entry.dictionary() && dictionary == null) return "needs the preset dictionary, which is missing or corrupt";
+        CRC32 crc = new CRC32();
+        long size = 0;
         try {
-            zos.putNextEntry(new ZipEntry(entryName));
-            Files.copy(file, zos);
-            zos.closeEntry();
-            return true;
+            long mark = System.nanoTime();
+            long from = CentralDirectory.dataOffset(source, entry), end = from + entry.compressedSize();
+            ByteBuffer input = buffers.input().limit(0), output = buffers.output();
+
+            if (entry.method() == ZipEntry.STORED) {
+                while (from < end) {
+                    input.clear().limit((int) Math.min(input.capacity(), end - from));
+                    int n = source.read(input, from);
+                    mark = report.add(RunReport.Phase.READ, mark);
+                    if (n <= 0) return "is truncated";
+                    from += n;
+                    crc.update(input.flip());
+                    mark = report.add(RunReport.Phase.CHECKSUM, mark);
+                    size += n;
+                    bytes.add(n);
+                    tracker.add(n);
+                }
+            } else {
+                Inflater inflater = buffers.inflater();
+                if (entry.dictionary()) inflater.setDictionary(dictionary);
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        // The raw inflater may stop right before the end of the data without reporting it is finished
+                        if (from >= end && size == entry.size()) break;
+                        if (from >= end) return "is truncated";
+                        input.clear().limit((int) Math.min(input.capacity(), end - from));
+                        int n = source.read(input, from);
+                        mark = report.add(RunReport.Phase.READ, mark);
+                        if (n <= 0) return "is truncated";
+                        from += n;
+                        inflater.setInput(input.flip());
+                    }
+                    int n = inflater.inflate(output.clear());
+                    mark = report.add(RunReport.Phase.INFLATE, mark);
+                    if (n == 0 && inflater.needsDictionary()) return "needs a preset dictionary";
+                    crc.update(output.flip());
+                    mark = report.add(RunReport.Phase.CHECKSUM, mark);
+                    size += n;
+                    // More data than declared is as wrong as less, and must not be inflated forever
+                    if (size > entry.size()) return "inflates to more than its declared " + entry.size() + " bytes";
+                    bytes.add(n);
+                    tracker.add(n);
+                }
+            }
+        } catch (DataFormatException e) {
+            return "is corrupt: " + e.getMessage();
         } catch (IOException e) {
-            return false;
+            return "could not be read: " + e.getMessage();
+        }
+        if (size != entry.size()) return "has " + size + " bytes instead of " + entry.size();
+        if (crc.getValue() != entry.crc()) return String.format("has CRC %08x instead of %08x", crc.getValue(), entry.crc());
+        return null;
+    }
+
+    /**
+     * Compresses a file on the current thread and streams it straight into the archive. A deflated file of at least
+     * {@link #chunkThreshold(long)} bytes is deflated in blocks by the workers of {@code pool} instead, if there is one.
+     */
+    private void addFileToZip(PreparedFile prepared, ZipWriter writer, ExecutorService pool, ProfileStats stats, ProgressTracker tracker,
+                              RunReport report) throws IOException {
+        long start = System.nanoTime();
+        try (var channel = FileChannel.open(prepared.file(), StandardOpenOption.READ)) {
+            CompressionProfile.Codec codec = prepared.codec();
+            if (codec.isAuto()) {
+                long sampleStart = System.nanoTime();
+                CodecSelector.Choice choice = CodecSelector.choose(channel, buffers);
+                report.add(RunReport.Phase.DEFLATE, sampleStart);
+                logger.accept(choice.describe(prepared.name()));
+                stats.chose(choice.codec());
+                codec = choice.codec();
+            }
+            long length = channel.size();
+            if (pool != null && codec.method() == ZipEntry.DEFLATED && length >= chunkThreshold) {
+                long compressedSize;
+                try (var blocks = new ChunkedDeflater(channel, length, codec, pool, threads * 2, buffers, report, tracker::add)) {
+                    compressedSize = writer.write(prepared.name(), prepared.modifiedTime(), length, blocks);
+                }
+                long time = System.nanoTime() - start;
+                stats.add(prepared.rule(), length, compressedSize, time);
+                report.entry(prepared.name(), codec.name() + " in blocks", length, compressedSize, time);
+                return;
+            }
+            Deflater deflater = buffers.deflater(codec);
+            long compressedSize = writer.write(prepared.name(), prepared.modifiedTime(), channel, prepared.size(), deflater, tracker::add);
+            long time = System.nanoTime() - start;
+            stats.add(prepared.rule(), prepared.size(), compressedSize, time);
+            report.entry(prepared.name(), codec.name(), prepared.size(), compressedSize, time);
+        } catch (IOException e) {
+            throw new IOException("Could not compress '" + prepared.file() + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Prepares a file on a worker thread. If the previous archive has an entry with the same name, size and modification time,
+     * or with the same size and CRC, that entry is returned to be copied as is. Otherwise, the file is compressed into memory
+     * with the codec chosen by the profile (or by a {@link CodecSelector} for the auto codec), except files larger than
+     * {@link #IN_MEMORY_LIMIT} that are left for the writer thread and returned without data.
+     * <p>
+     * The file is read through the direct input buffer of the current thread and deflated with its pooled deflater into an
+     * array taken from the {@link BufferPool}, which the writer gives back once the entry is written.
+     *
+     * @param dictionary preset dictionary for the small deflated files, or {@code null} to deflate them on their own
+     */
+    private PreparedFile prepare(SourceManifest.Entry source, PreviousArchive previous, byte[] dictionary, ProfileStats stats, ProgressTracker tracker,
+                                 RunReport report) throws IOException {
+        Path file = source.path();
+        String name = source.name();
+        long modifiedTime = source.modifiedTime();
+        long size = source.size();
+
+        CentralDirectory.Entry entry = previous != null ? previous.entries().get(name) : null;
+        if (entry != null && entry.size() == size) {
+            boolean sameTime = entry.exactTime() && entry.modifiedTime() / 1000 == modifiedTime / 1000;
+            if (sameTime || getCrc(file, tracker, report) == entry.crc())
+                return new PreparedFile(file, name, modifiedTime, entry.crc(), size, -1, null, null, null, 0, false, entry);
+        }
+
+        int rule = profile.match(name, size);
+        if (size > IN_MEMORY_LIMIT) return new PreparedFile(file, name, modifiedTime, 0, size, rule, profile.codec(rule), null, null, 0, false, null);
+
+        long start = System.nanoTime(), mark = start;
+        CompressionProfile.Codec codec = profile.codec(rule);
+        CodecSelector.Choice choice = null;
+        CRC32 crc = new CRC32();
+        Deflater deflater;
+        boolean withDictionary;
+        byte[] data;
+        int length = 0;
+        long read = 0;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (codec.isAuto()) {
+                mark = report.add(RunReport.Phase.READ, mark);
+                choice = CodecSelector.choose(channel, buffers);
+                codec = choice.codec();
+                mark = report.add(RunReport.Phase.DEFLATE, mark);
+            }
+            deflater = buffers.deflater(codec);
+            withDictionary = dictionary != null && PresetDictionary.appliesTo(codec, size);
+            if (withDictionary) deflater.setDictionary(dictionary);
+            ByteBuffer input = buffers.input();
+            // Room for the file as it was scanned; the array only grows if the file grew since then
+            data = buffers.take(deflater == null ? (int) size : (int) (size + (size >> 8) + 64));
+            while (channel.read(input.clear()) != -1) {
+                tracker.check();
+                mark = report.add(RunReport.Phase.READ, mark);
+                input.flip();
+                read += input.remaining();
+                crc.update(input);
+                input.flip();
+                mark = report.add(RunReport.Phase.CHECKSUM, mark);
+                if (deflater == null) {
+                    if (length + input.remaining() > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + input.remaining()));
+                    int n = input.remaining();
+                    input.get(data, length, n);
+                    length += n;
+                    mark = report.add(RunReport.Phase.READ, mark);
+                    continue;
+                }
+                deflater.setInput(input);
+                while (!deflater.needsInput()) {
+                    if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+                    length += deflater.deflate(data, length, data.length - length);
+                }
+                mark = report.add(RunReport.Phase.DEFLATE, mark);
+            }
+            // The deflater still points at the buffer, which the last read cleared
+            input.flip();
+        }
+        mark = report.add(RunReport.Phase.READ, mark);
+        if (deflater != null) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+                length += deflater.deflate(data, length, data.length - length);
+            }
+            mark = report.add(RunReport.Phase.DEFLATE, mark);
+        }
+
+        stats.add(rule, read, length, mark - start);
+        report.entry(name, codec.name(), read, length, mark - start);
+        if (choice != null) stats.chose(choice.codec());
+        return new PreparedFile(file, name, modifiedTime, crc.getValue(), read, rule, codec, choice, data, length, withDictionary, null);
+    }
+
+    /**
+     * Trains a {@link PresetDictionary} from the small files that the profile deflates, logging how long it took.
+     *
+     * @return the dictionary, or {@code null} if there are too few small files or they share too little
+     */
+    private byte[] trainDictionary(List<SourceManifest.Entry> files, ProgressTracker tracker, RunReport report) throws IOException {
+        long start = System.nanoTime();
+        List<SourceManifest.Entry> small = new ArrayList<>();
+        for (SourceManifest.Entry file : files) {
+            if (file.size() == 0 || file.size() > PresetDictionary.MAX_FILE_SIZE) continue;
+            CompressionProfile.Codec codec = profile.codec(profile.match(file.name(), file.size()));
+            if (codec.isAuto() || PresetDictionary.appliesTo(codec, file.size())) small.add(file);
+        }
+        byte[] dictionary = PresetDictionary.train(small, tracker);
+        report.add(RunReport.Phase.TRAIN, start);
+        if (dictionary == null) logger.accept("No preset dictionary: too few small files or too little in common (" + small.size() + " small files)");
+        else logger.accept(String.format("Trained a preset dictionary of %s from %d small files in %dms", Utils.formatFileSize(dictionary.length),
+                small.size(), (System.nanoTime() - start) / 1_000_000));
+        return dictionary;
+    }
+
+    /**
+     * Writes an entry of the tool itself, like the alias manifest, deflated at the best level.
+     */
+    private void writeDeflated(ZipWriter writer, String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer deflated = deflate(buffers.deflater(Deflater.BEST_COMPRESSION), data);
+        writer.write(name, System.currentTimeMillis(), ZipEntry.DEFLATED, crc.getValue(), data.length, deflated.array(), 0, deflated.limit());
+    }
+
+    /**
+     * Deflates the whole input in memory.
+     *
+     * @return a buffer wrapping the output array, with the deflated length as its limit
+     */
+    private static ByteBuffer deflate(Deflater deflater, byte[] input) {
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] output = new byte[Math.max(64, input.length + (input.length >> 8) + 64)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == output.length) output = Arrays.copyOf(output, output.length * 2);
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return ByteBuffer.wrap(output, 0, length);
+    }
+
+    /**
+     * Finds the files whose content is identical to an earlier file of the list. Only the files that share their size with
+     * another file are hashed, on the worker threads when there is a pool.
+     *
+     * @return map from the entry name of every duplicate to the entry name of the first file with the same content
+     */
+    private Map<String, String> findDuplicates(List<SourceManifest.Entry> files, ExecutorService pool, ProgressTracker tracker, RunReport report)
+            throws IOException {
+        Map<Long, Integer> sizeCounts = new HashMap<>();
+        for (SourceManifest.Entry file : files) sizeCounts.merge(file.size(), 1, Integer::sum);
+
+        List<Future<byte[]>> digests = new ArrayList<>(files.size());
+        for (SourceManifest.Entry file : files)
+            digests.add(file.size() > 0 && sizeCounts.get(file.size()) > 1 ? submit(pool, () -> getDigest(file.path(), tracker, report)) : null);
+
+        Map<String, String> firstByContent = new HashMap<>(), aliases = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (digests.get(i) == null) continue;
+            SourceManifest.Entry file = files.get(i);
+            String first = firstByContent.putIfAbsent(file.size() + ":" + HexFormat.of().formatHex(await(digests.get(i))), file.name());
+            if (first != null) aliases.put(file.name(), first);
+        }
+        return aliases;
+    }
+
+    private byte[] getDigest(Path file, ProgressTracker tracker, RunReport report) throws IOException {
+        long start = System.nanoTime();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = buffers.input();
+            while (channel.read(buffer.clear()) != -1) {
+                tracker.check();
+                digest.update(buffer.flip());
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform is required to support SHA-256
+        } finally {
+            report.add(RunReport.Phase.HASH, start);
+        }
+    }
+
+    /**
+     * Stops the workers of an operation and waits until they are done, so none of them still uses the {@link BufferPool}
+     * when the operation closes it. After a failure or a cancellation the running tasks end at their next buffer or file; an
+     * interrupt of the calling thread does not cut the wait short, it is restored afterwards.
+     */
+    private static void shutdown(ExecutorService pool) {
+        pool.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.MINUTES)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Runs the task on the pool, or right away on the calling thread when there is no pool. */
+    private static <T> Future<T> submit(ExecutorService pool, Callable<T> task) {
+        if (pool != null) return pool.submit(task);
+        try {
+            return CompletableFuture.completedFuture(task.call());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private long getCrc(Path file, ProgressTracker tracker, RunReport report) throws IOException {
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = buffers.input();
+            while (channel.read(buffer.clear()) != -1) {
+                tracker.check();
+                crc.update(buffer.flip());
+            }
+        } finally {
+            report.add(RunReport.Phase.CHECKSUM, start);
         }
+        return crc.getValue();
     }
 
-    private boolean extractFileFromZip(ZipFile zipFile, ZipEntry entry, File destFile) {
+    static <T> T await(Future<T> future) throws IOException {
         try {
-            Path parent = destFile.toPath().getParent();
-            if (parent != null) Files.createDirectories(parent);
-            try (var is = zipFile.getInputStream(entry);
-                 var os = Files.newOutputStream(destFile.toPath())) {
-                is.transferTo(os);
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof CancellationException cancelled) throw cancelled;
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    /**
+     * Extracts an entry, checking the limits after every buffer against the bytes of the entry and the {@code totalBytes} of the
+     * whole extraction. Stored entries are copied with {@link FileChannel#transferTo} in chunks of {@value #TRANSFER_CHUNK}
+     * bytes, so the progress and the limits advance on large files; their data never reaches the JVM, so their CRC is not
+     * checked here, only that they are as long as declared, which is what {@link #verify} is for. Deflated entries are read
+     * into the input buffer of the current thread and inflated into its output buffer, which is only written to the file when
+     * it is full, and must inflate to the size and CRC of the central directory.
+     *
+     * @param dictionary preset dictionary of the archive, or {@code null} if it has none
+     * @return what is wrong with the entry, or {@code null} if it was extracted; the file may then hold part of the data
+     * @throws ExtractionLimits.LimitExceededException if a limit was crossed, which must stop the whole extraction
+     */
+    private String extractEntry(FileChannel source, CentralDirectory.Entry entry, byte[] dictionary, Path destFile, ProgressTracker tracker,
+                                 AtomicLong totalBytes, RunReport report) throws ExtractionLimits.LimitExceededException {
+        if (entry.method() != ZipEntry.STORED && entry.method() != ZipEntry.DEFLATED) return "uses an unsupported compression method " + entry.method();
+        if (entry.dictionary() && dictionary == null) return "needs the preset dictionary, which is missing";
+        // A stored entry is copied as is, so both sizes must agree before anything is written
+        if (entry.method() == ZipEntry.STORED && entry.size() != entry.compressedSize())
+            return "is stored with " + entry.compressedSize() + " bytes instead of " + entry.size();
+        long mark = System.nanoTime();
+        try (var os = createFile(destFile)) {
+            mark = report.add(RunReport.Phase.WRITE, mark);
+            long from = CentralDirectory.dataOffset(source, entry), end = from + entry.compressedSize(), written = 0;
+            mark = report.add(RunReport.Phase.READ, mark);
+
+            if (entry.method() == ZipEntry.STORED) {
+                while (written < entry.size()) {
+                    long n = source.transferTo(from + written, Math.min(TRANSFER_CHUNK, end - from - written), os);
+                    mark = report.add(RunReport.Phase.WRITE, mark);
+                    if (n <= 0) return "is truncated";
+                    written += n;
+                    limits.check(entry.name(), written, entry.compressedSize(), totalBytes.addAndGet(n));
+                    tracker.add(n);
+                }
+                return null;
             }
-            return true;
+
+            Inflater inflater = buffers.inflater();
+            if (entry.dictionary()) inflater.setDictionary(dictionary);
+            ByteBuffer input = buffers.input().limit(0), output = buffers.output();
+            CRC32 crc = new CRC32();
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    // The raw inflater may stop right before the end of the data without reporting it is finished
+                    if (from >= end && written == entry.size()) break;
+                    input.clear().limit((int) Math.min(input.capacity(), end - from));
+                    int n = from < end ? source.read(input, from) : -1;
+                    mark = report.add(RunReport.Phase.READ, mark);
+                    if (n <= 0) return "is truncated";
+                    from += n;
+                    inflater.setInput(input.flip());
+                }
+                int n = inflater.inflate(output);
+                mark = report.add(RunReport.Phase.INFLATE, mark);
+                if (n == 0 && inflater.needsDictionary()) return "needs a preset dictionary";
+                written += n;
+                limits.check(entry.name(), written, entry.compressedSize(), totalBytes.addAndGet(n));
+                tracker.add(n);
+                if (!output.hasRemaining() || inflater.finished()) {
+                    crc.update(output.flip());
+                    output.flip();
+                    while (output.hasRemaining()) os.write(output);
+                    output.clear();
+                    mark = report.add(RunReport.Phase.WRITE, mark);
+                }
+            }
+            if (output.position() > 0) {
+                crc.update(output.flip());
+                output.flip();
+                while (output.hasRemaining()) os.write(output);
+            }
+            report.add(RunReport.Phase.WRITE, mark);
+            if (written != entry.size()) return "has " + written + " bytes instead of " + entry.size();
+            if (crc.getValue() != entry.crc()) return String.format("has CRC %08x instead of %08x", crc.getValue(), entry.crc());
+            return null;
+        } catch (ExtractionLimits.LimitExceededException e) {
+            throw e;
+        } catch (DataFormatException e) {
+            return "is corrupt: " + e.getMessage();
         } catch (IOException e) {
-            return false;
+            return "could not be extracted: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads and inflates a small entry, like the alias manifest, into memory.
+     */
+    private byte[] readEntry(FileChannel source, CentralDirectory.Entry entry) throws IOException {
+        if (entry.size() > Integer.MAX_VALUE - 8 || entry.compressedSize() > Integer.MAX_VALUE - 8)
+            throw new ZipException("Entry '" + entry.name() + "' is too large to be read into memory");
+        ByteBuffer raw = CentralDirectory.readFully(source, CentralDirectory.dataOffset(source, entry), (int) entry.compressedSize());
+        if (entry.method() == ZipEntry.STORED) return raw.array();
+        Inflater inflater = buffers.inflater();
+        inflater.setInput(raw);
+        byte[] data = new byte[(int) entry.size()];
+        try {
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, data.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            }
+            if (n != data.length) throw new ZipException("Entry '" + entry.name() + "' is truncated");
+        } catch (DataFormatException e) {
+            throw new ZipException("Entry '" + entry.name() + "' is corrupt: " + e.getMessage());
         }
+        return data;
     }
 
     /**
-     * Validates that a targetFile is within the permitted directory (security against zip bombs).
+     * Creates or truncates a file to extract into, without following a symbolic link in its place.
      */
-    private boolean isWithinDirectory(File targetDir, File targetFile) throws IOException {
-        String targetDirPath = targetDir.getCanonicalPath() + File.separator;
-        String targetFilePath = targetFile.getCanonicalPath();
-        return targetFilePath.startsWith(targetDirPath) || targetFilePath.equals(targetDir.getCanonicalPath());
+    private static FileChannel createFile(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                LinkOption.NOFOLLOW_LINKS);
     }
 
-    private boolean hasFiles(Path sourceDir) throws IOException {
-        try (Stream<Path> paths = Files.walk(sourceDir)) {
-            return paths.anyMatch(Files::isRegularFile);
+    /**
+     * A file ready to be written: deflated {@code data}, an unchanged {@code previous} entry to copy, or neither when the file
+     * must be streamed by the writer thread.
+     *
+     * @param codec  codec of the data, still {@link CompressionProfile.Codec#AUTO} for a large file that the writer compresses
+     * @param choice     how the codec was chosen, or {@code null} if the profile decided it
+     * @param dictionary true if the data was deflated with the preset dictionary
+     */
+    private record PreparedFile(Path file, String name, long modifiedTime, long crc, long size, int rule, CompressionProfile.Codec codec,
+                                CodecSelector.Choice choice, byte[] data, int length, boolean dictionary, CentralDirectory.Entry previous) {
+    }
+
+    /**
+     * @param corrupt entries that could not be extracted or failed their size or CRC check, whose files were deleted
+     * @param matched entries and aliases selected for extraction
+     * @param skipped entries and aliases left out by the selection
+     */
+    private record Extraction(int filesProcessed, int corrupt, int matched, int skipped) {
+    }
+
+    private record Verification(int entries, int corrupt, long bytes) {
+    }
+
+    /**
+     * @param dictionary preset dictionary of the archive, or {@code null} if it has none
+     */
+    private record PreviousArchive(Map<String, CentralDirectory.Entry> entries, FileChannel channel, byte[] dictionary) {
+    }
+
+    /**
+     * Entries of the archive deflated with the preset dictionary.
+     *
+     * @param inputBytes  bytes of the files deflated with it by this run, without the copied entries
+     * @param outputBytes what those files were deflated to
+     */
+    private record DictionaryUse(int files, long inputBytes, long outputBytes) {
+    }
+
+    private record Outcome(int filesProcessed, int reused, int replaced, int duplicates, long duplicateBytes, ProfileStats stats,
+                           DictionaryUse dictionary, long sourceBytes, long archiveBytes) {
+
+        List<String> details() {
+            List<String> details = new ArrayList<>();
+            details.add(String.format("%s → %s (%.1f%% compressed)", Utils.formatFileSize(sourceBytes), Utils.formatFileSize(archiveBytes),
+                    sourceBytes > 0 ? (1.0 - (double) archiveBytes / sourceBytes) * 100.0 : 0.0));
+            details.addAll(stats.report());
+            if (dictionary.files() > 0) details.add(String.format("Preset dictionary used by %d file%s%s", dictionary.files(),
+                    dictionary.files() != 1 ? "s" : "", dictionary.inputBytes() == 0 ? "" : String.format(" (%s → %s deflated this run)",
+                            Utils.formatFileSize(dictionary.inputBytes()), Utils.formatFileSize(dictionary.outputBytes()))));
+            if (duplicates > 0) details.add(String.format("Deduplicated %d file%s (%s stored once)", duplicates, duplicates != 1 ? "s" : "",
+                    Utils.formatFileSize(duplicateBytes)));
+            return details;
+        }
+
+    }
+
+    /**
+     * Files, sizes and compression time accumulated per profile rule by the worker threads.
+     */
+    private static final class ProfileStats {
+
+        private final CompressionProfile profile;
+        /** Index 0 is the default codec, index {@code i + 1} is rule {@code i}. */
+        private final LongAdder[] files, input, output, nanos;
+        /** Files of the auto codec by the codec chosen, in the order of {@link CodecSelector#CODECS}. */
+        private final LongAdder[] choices = newAdders(CodecSelector.CODECS.size());
+
+        ProfileStats(CompressionProfile profile) {
+            this.profile = profile;
+            int n = profile.ruleCount() + 1;
+            files = newAdders(n);
+            input = newAdders(n);
+            output = newAdders(n);
+            nanos = newAdders(n);
         }
+
+        void add(int rule, long inputBytes, long outputBytes, long time) {
+            files[rule + 1].increment();
+            input[rule + 1].add(inputBytes);
+            output[rule + 1].add(outputBytes);
+            nanos[rule + 1].add(time);
+        }
+
+        void chose(CompressionProfile.Codec codec) {
+            choices[CodecSelector.CODECS.indexOf(codec)].increment();
+        }
+
+        List<String> report() {
+            List<String> lines = new ArrayList<>();
+            long totalInput = 0, totalOutput = 0, totalNanos = 0;
+            for (int i = 0; i < files.length; i++) {
+                long count = files[i].sum();
+                if (count == 0) continue;
+                long in = input[i].sum(), out = output[i].sum(), time = nanos[i].sum();
+                totalInput += in;
+                totalOutput += out;
+                totalNanos += time;
+                lines.add(String.format("  %s: %d file%s, %s → %s (%.1f%%), %dms", profile.describe(i - 1), count, count != 1 ? "s" : "",
+                        Utils.formatFileSize(in), Utils.formatFileSize(out), in == 0 ? 0.0 : (1.0 - (double) out / in) * 100.0, time / 1_000_000));
+            }
+            if (lines.isEmpty()) return List.of();
+            StringJoiner chosen = new StringJoiner(", ", "  auto chose ", "").setEmptyValue("");
+            for (int i = 0; i < choices.length; i++) {
+                long count = choices[i].sum();
+                if (count > 0) chosen.add(CodecSelector.CODECS.get(i).name() + " for " + count + " file" + (count != 1 ? "s" : ""));
+            }
+            if (chosen.length() > 0) lines.add(chosen.toString());
+            lines.add(0, String.format("Profile '%s': %s → %s, %dms compressing", profile.name(), Utils.formatFileSize(totalInput),
+                    Utils.formatFileSize(totalOutput), totalNanos / 1_000_000));
+            return lines;
+        }
+
+        private static LongAdder[] newAdders(int n) {
+            LongAdder[] adders = new LongAdder[n];
+            for (int i = 0; i < n; i++) adders[i] = new LongAdder();
+            return adders;
+        }
+
     }
 
-    public record Result(int filesProcessed, boolean success, String message) {
+    /**
+     * The outcome of an operation.
+     *
+     * @param details additional report lines to log after the summary
+     * @param report  timings of the operation, or {@code null} if it did not get far enough to run
+     */
+    public record Result(int filesProcessed, boolean success, String message, List<String> details, RunReport report) {
 
         public static Result success(int filesProcessed, String message) {
-            return new Result(filesProcessed, true, message);
+            return success(filesProcessed, message, List.of());
+        }
+
+        public static Result success(int filesProcessed, String message, List<String> details) {
+            return new Result(filesProcessed, true, message, details, null);
         }
 
         public static Result failure(String message) {
-            return new Result(-1, false, message);
+            return new Result(-1, false, message, List.of(), null);
         }
 
     }
@@ -0,0 +1,150 @@
+package org.aocompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded LRU cache of inflated entries on top of an {@link AoArchive}.
+ * <p>
+ * The bound is the total number of bytes held, not the number of entries, so a few large sounds cannot push out thousands of
+ * small sprites without being accounted for. When several threads ask for the same entry while it is not cached, only one of
+ * them inflates it and the rest wait for that same load. The data can be kept off-heap in direct buffers so a large cache does
+ * not grow the GC heap; evicted direct buffers are released when they are no longer referenced.
+ * <p>
+ * The buffers returned are read-only views that share the cached data, so they stay valid after the entry is evicted.
+ */
+
+public final class EntryCache {
+
+    private final AoArchive archive;
+    private final long maxBytes;
+    private final boolean offHeap;
+    /** Cached entries in access order, guarded by its own monitor. */
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, CompletableFuture<ByteBuffer>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), loads = new LongAdder(), evictions = new LongAdder();
+    private long residentBytes;
+
+    /**
+     * @param maxBytes maximum number of bytes of entry data held by the cache
+     * @param offHeap  true to keep the data in direct buffers outside the GC heap
+     */
+    public EntryCache(AoArchive archive, long maxBytes, boolean offHeap) {
+        if (maxBytes < 0) throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        this.archive = archive;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Returns the inflated entry, reading it from the archive only if it is not cached or being loaded by another thread.
+     *
+     * @throws java.nio.file.NoSuchFileException if the archive has no entry with that name
+     */
+    public ByteBuffer get(String name) throws IOException {
+        ByteBuffer cached = lookup(name);
+        if (cached != null) {
+            hits.increment();
+            return cached.asReadOnlyBuffer();
+        }
+        misses.increment();
+
+        CompletableFuture<ByteBuffer> load = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> inFlight = loading.putIfAbsent(name, load);
+        if (inFlight != null) return await(inFlight).asReadOnlyBuffer();
+
+        try {
+            // Another thread may have finished loading it between the lookup and the putIfAbsent
+            ByteBuffer data = lookup(name);
+            if (data == null) {
+                data = archive.read(name);
+                loads.increment();
+                if (offHeap) data = ByteBuffer.allocateDirect(data.remaining()).put(data).flip();
+                store(name, data);
+            }
+            load.complete(data);
+            return data.asReadOnlyBuffer();
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(name, load);
+        }
+    }
+
+    /** Removes every entry from the cache. */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            residentBytes = 0;
+        }
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), loads.sum(), evictions.sum(), entries.size(), residentBytes, maxBytes);
+        }
+    }
+
+    private ByteBuffer lookup(String name) {
+        synchronized (entries) {
+            return entries.get(name);
+        }
+    }
+
+    private void store(String name, ByteBuffer data) {
+        long size = data.capacity();
+        if (size > maxBytes) return; // Would evict everything else and still not fit
+        synchronized (entries) {
+            ByteBuffer previous = entries.put(name, data);
+            if (previous != null) residentBytes -= previous.capacity();
+            residentBytes += size;
+            Iterator<ByteBuffer> eldest = entries.values().iterator();
+            while (residentBytes > maxBytes && eldest.hasNext()) {
+                residentBytes -= eldest.next().capacity();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static ByteBuffer await(CompletableFuture<ByteBuffer> load) throws IOException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw e;
+        }
+    }
+
+    /**
+     * Cache counters.
+     *
+     * @param hits          lookups served from the cache
+     * @param misses        lookups that were not cached, including the ones that waited for a load in flight
+     * @param loads         entries actually read and inflated from the archive
+     * @param residentBytes bytes of entry data currently held
+     */
+    public record Stats(long hits, long misses, long loads, long evictions, int entries, long residentBytes, long maxBytes) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.1f%% hit rate), %d loads, %d evictions, %d entries, %s of %s",
+                    hits, misses, hitRate() * 100.0, loads, evictions, entries, Utils.formatFileSize(residentBytes), Utils.formatFileSize(maxBytes));
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.aocompressor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Order in which the files of a folder are laid out in the archive.
+ * <p>
+ * The client reads an archive at random, but it reads it in patterns: the tiles, bodies and sounds of a map are loaded
+ * together. If those entries sit next to each other, loading a map turns into a few long sequential reads that the read-ahead
+ * of the operating system can serve, instead of a seek per entry, which is what matters on a hard disk or a cold cache.
+ * <p>
+ * The orders are:
+ * <ul>
+ *     <li>{@link #PATH}: sorted by path, the order the compressor always used;</li>
+ *     <li>{@link #FOLDER}: the files of every folder together, folders in depth-first order, so a folder is never split by
+ *     the files of a sibling like {@code graphics-old/} sorting between {@code graphics/} and {@code graphics/body/};</li>
+ *     <li>{@link #ID}: by folder, then by the number in the file name, so {@code 2.bmp} comes before {@code 10.bmp} and
+ *     {@code Mapa1.map} sits next to {@code Mapa1.inf};</li>
+ *     <li>{@link #trace(Path)}: the files of an access trace first, in the order they were first read (see
+ *     {@link AccessTrace}), followed by the rest by folder.</li>
+ * </ul>
+ * Every order is total, so the same folder always produces the same layout.
+ */
+
+public final class EntryOrder {
+
+    /** Sorted by path, like a sorted walk of the folder. */
+    public static final EntryOrder PATH = new EntryOrder("Path", null);
+
+    /** The files of every folder together, folders in depth-first order. */
+    public static final EntryOrder FOLDER = new EntryOrder("Folder", EntryOrder::compareByFolder);
+
+    /** By folder, then by the resource number in the file name. */
+    public static final EntryOrder ID = new EntryOrder("ID", EntryOrder::compareById);
+
+    private final String name;
+    /** Compares entry names, or {@code null} to keep the order of the manifest. */
+    private final Comparator<String> comparator;
+    /** Position of every traced name, lower-cased; empty if this is not a trace order. */
+    private final Map<String, Integer> ranks;
+
+    private EntryOrder(String name, Comparator<String> comparator) {
+        this(name, comparator, Map.of());
+    }
+
+    private EntryOrder(String name, Comparator<String> comparator, Map<String, Integer> ranks) {
+        this.name = name;
+        this.comparator = comparator;
+        this.ranks = ranks;
+    }
+
+    public static List<EntryOrder> presets() {
+        return List.of(PATH, FOLDER, ID);
+    }
+
+    /**
+     * Creates an order that follows an access trace. Names are matched case-insensitively with either separator, and a name
+     * that appears more than once keeps its first position.
+     */
+    public static EntryOrder trace(String name, List<String> names) {
+        Map<String, Integer> ranks = new HashMap<>();
+        for (String traced : names) ranks.putIfAbsent(normalize(traced), ranks.size());
+        // Untraced files go after every traced one, by folder
+        Comparator<String> comparator = Comparator.comparingInt((String entry) -> ranks.getOrDefault(normalize(entry), Integer.MAX_VALUE))
+                .thenComparing(EntryOrder::compareByFolder);
+        return new EntryOrder(name, comparator, Map.copyOf(ranks));
+    }
+
+    /**
+     * Reads the order from a trace file written by {@link AccessTrace#write(Path)}.
+     *
+     * @throws IOException if the file cannot be read or has no entries
+     */
+    public static EntryOrder trace(Path file) throws IOException {
+        List<String> names = AccessTrace.read(file);
+        if (names.isEmpty()) throw new IOException("The trace '" + file + "' has no entries.");
+        return trace("Trace '" + file.getFileName() + "'", names);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Returns whether this order follows an access trace. */
+    public boolean isTrace() {
+        return !ranks.isEmpty();
+    }
+
+    /**
+     * Returns the files in this order. The manifest is sorted by path, which is already the {@link #PATH} order.
+     */
+    List<SourceManifest.Entry> sort(List<SourceManifest.Entry> files) {
+        if (comparator == null) return files;
+        List<SourceManifest.Entry> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing(SourceManifest.Entry::name, comparator));
+        return sorted;
+    }
+
+    /** Returns how many of the files are in the trace. */
+    int traced(List<SourceManifest.Entry> files) {
+        int traced = 0;
+        for (SourceManifest.Entry file : files)
+            if (ranks.containsKey(normalize(file.name()))) traced++;
+        return traced;
+    }
+
+    private static int compareByFolder(String a, String b) {
+        int folder = compareFolders(a, b);
+        return folder != 0 ? folder : a.compareTo(b);
+    }
+
+    private static int compareById(String a, String b) {
+        int folder = compareFolders(a, b);
+        if (folder != 0) return folder;
+        String nameA = a.substring(a.lastIndexOf('/') + 1), nameB = b.substring(b.lastIndexOf('/') + 1);
+        int id = compareNumbers(firstNumber(nameA), firstNumber(nameB));
+        return id != 0 ? id : a.compareTo(b);
+    }
+
+    /**
+     * Compares the folders of two entry names, with {@code /} before any other character so a folder is followed by its
+     * subfolders.
+     */
+    private static int compareFolders(String a, String b) {
+        int endA = Math.max(a.lastIndexOf('/'), 0), endB = Math.max(b.lastIndexOf('/'), 0);
+        int length = Math.min(endA, endB);
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i), cb = b.charAt(i);
+            if (ca == cb) continue;
+            if (ca == '/') return -1;
+            if (cb == '/') return 1;
+            return Character.compare(ca, cb);
+        }
+        if (endA == endB) return 0;
+        // One folder is a prefix of the other: the parent (or the root) goes first
+        return endA < endB ? -1 : 1;
+    }
+
+    /** Returns the digits of the first number in a file name, without leading zeros, or {@code null} if it has none. */
+    private static String firstNumber(String name) {
+        int start = 0;
+        while (start < name.length() && !isDigit(name.charAt(start))) start++;
+        if (start == name.length()) return null;
+        int end = start;
+        while (end < name.length() && isDigit(name.charAt(end))) end++;
+        while (start < end - 1 && name.charAt(start) == '0') start++;
+        return name.substring(start, end);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Compares numbers of any length by their digits. Names without a number go last. */
+    private static int compareNumbers(String a, String b) {
+        if (a == null || b == null) return a == null ? (b == null ? 0 : 1) : -1;
+        return a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+    }
+
+    private static String normalize(String name) {
+        return name.replace('\\', '/').toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
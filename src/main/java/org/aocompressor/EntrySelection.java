@@ -0,0 +1,100 @@
+package org.aocompressor;
+
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Selects the entries of an archive to extract by name, before any entry data is read.
+ * <p>
+ * Every pattern is one of:
+ * <ul>
+ *     <li>a glob, if it contains {@code *}, {@code ?}, {@code [} or <code>{</code>: {@code graphics/body/**} selects everything
+ *     under that folder. Like in {@link CompressionProfile}, a glob without a {@code /} is matched against the file name only,
+ *     so {@code *.wav} selects the WAV files of every folder;</li>
+ *     <li>a folder, if it ends with {@code /}: everything under it is selected;</li>
+ *     <li>otherwise, the exact path of an entry.</li>
+ * </ul>
+ * Exact paths are looked up in a hash set, so a list of thousands of files costs no more per entry than a single one. Matching
+ * is case-insensitive and {@code \} is accepted as a separator, as the resources come from Windows.
+ */
+
+public final class EntrySelection {
+
+    /** Selects every entry. */
+    public static final EntrySelection ALL = new EntrySelection(List.of());
+
+    private final List<String> patterns;
+    private final Set<String> names = new HashSet<>();
+    private final List<String> folders = new ArrayList<>();
+    private final List<PathMatcher> pathGlobs = new ArrayList<>(), nameGlobs = new ArrayList<>();
+
+    private EntrySelection(List<String> patterns) {
+        this.patterns = List.copyOf(patterns);
+        for (String pattern : patterns) {
+            String normalized = normalize(pattern);
+            if (normalized.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{')) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalized);
+                (normalized.contains("/") ? pathGlobs : nameGlobs).add(matcher);
+            } else if (normalized.endsWith("/")) folders.add(normalized);
+            else names.add(normalized);
+        }
+    }
+
+    /**
+     * Creates a selection of the entries that match any of the patterns. Blank patterns are ignored, and no patterns at all
+     * select every entry.
+     */
+    public static EntrySelection of(List<String> patterns) {
+        List<String> kept = patterns.stream().map(String::strip).filter(pattern -> !pattern.isEmpty()).toList();
+        return kept.isEmpty() ? ALL : new EntrySelection(kept);
+    }
+
+    /**
+     * Parses a list of patterns, one per line. Blank lines and lines starting with {@code #} are ignored.
+     */
+    public static EntrySelection parse(List<String> lines) {
+        return of(lines.stream().filter(line -> !line.strip().startsWith("#")).toList());
+    }
+
+    /** Returns whether every entry is selected. */
+    public boolean isAll() {
+        return patterns.isEmpty();
+    }
+
+    public boolean matches(String entryName) {
+        if (isAll()) return true;
+        String name = normalize(entryName);
+        if (names.contains(name)) return true;
+        for (String folder : folders)
+            if (name.startsWith(folder)) return true;
+        if (pathGlobs.isEmpty() && nameGlobs.isEmpty()) return false;
+        try {
+            Path path = Path.of(name);
+            for (PathMatcher glob : pathGlobs)
+                if (glob.matches(path)) return true;
+            Path fileName = path.getFileName();
+            for (PathMatcher glob : nameGlobs)
+                if (fileName != null && glob.matches(fileName)) return true;
+        } catch (InvalidPathException e) {
+            return false; // Never extracted anyway, the extraction plan rejects it
+        }
+        return false;
+    }
+
+    private static String normalize(String name) {
+        return name.replace('\\', '/').toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all entries" : String.join(", ", patterns);
+    }
+
+}
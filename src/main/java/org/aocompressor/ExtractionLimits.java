@@ -0,0 +1,90 @@
+package org.aocompressor;
+
+import java.io.IOException;
+
+/**
+ * Limits that stop an extraction before a malicious or corrupt archive fills the disk.
+ * <p>
+ * The sizes declared by the archive are checked before anything is written, and the bytes actually inflated are checked again
+ * after every buffer while the data is streamed, since the declared sizes can lie. The ratio limit only applies once an entry
+ * has inflated {@value #RATIO_THRESHOLD} bytes, so small and very repetitive files are still accepted. Its default is just above
+ * the 1032:1 that deflate reaches at most, so every archive the compressor writes passes, and an entry that claims or inflates
+ * to more than deflate can encode is still stopped. The messages name the command line option that raises each limit.
+ *
+ * @param maxTotalBytes maximum number of bytes written by the whole extraction, aliases included
+ * @param maxEntryBytes maximum uncompressed size of a single entry
+ * @param maxRatio      maximum ratio between the uncompressed and the compressed size of an entry
+ * @param maxEntries    maximum number of entries in the archive, aliases included
+ */
+
+public record ExtractionLimits(long maxTotalBytes, long maxEntryBytes, double maxRatio, int maxEntries) {
+
+    static final long RATIO_THRESHOLD = 1024 * 1024;
+
+    /** Generous limits for game resources: 16 GB in total, 4 GB per entry, a ratio of 1100 and a million entries. */
+    public static final ExtractionLimits DEFAULT = new ExtractionLimits(16L * 1024 * 1024 * 1024, 4L * 1024 * 1024 * 1024, 1100, 1_000_000);
+
+    /** No limits at all, for archives that are trusted. */
+    public static final ExtractionLimits NONE = new ExtractionLimits(Long.MAX_VALUE, Long.MAX_VALUE, Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+
+    public ExtractionLimits {
+        if (maxTotalBytes < 0 || maxEntryBytes < 0 || maxEntries < 0) throw new IllegalArgumentException("Limits must not be negative");
+        if (!(maxRatio >= 1)) throw new IllegalArgumentException("maxRatio must be at least 1: " + maxRatio);
+    }
+
+    public ExtractionLimits withMaxTotalBytes(long maxTotalBytes) {
+        return new ExtractionLimits(maxTotalBytes, maxEntryBytes, maxRatio, maxEntries);
+    }
+
+    public ExtractionLimits withMaxEntryBytes(long maxEntryBytes) {
+        return new ExtractionLimits(maxTotalBytes, maxEntryBytes, maxRatio, maxEntries);
+    }
+
+    public ExtractionLimits withMaxRatio(double maxRatio) {
+        return new ExtractionLimits(maxTotalBytes, maxEntryBytes, maxRatio, maxEntries);
+    }
+
+    public ExtractionLimits withMaxEntries(int maxEntries) {
+        return new ExtractionLimits(maxTotalBytes, maxEntryBytes, maxRatio, maxEntries);
+    }
+
+    void checkEntries(int entries) throws LimitExceededException {
+        if (entries > maxEntries)
+            throw new LimitExceededException("The archive has " + entries + " entries, more than the limit of " + maxEntries + override("--max-entries"));
+    }
+
+    /**
+     * Checks an entry after {@code entryBytes} of it were inflated and {@code totalBytes} were written in total. This runs once
+     * per buffer in the copy loops, so it only compares numbers.
+     */
+    void check(String name, long entryBytes, long compressedSize, long totalBytes) throws LimitExceededException {
+        if (entryBytes > maxEntryBytes)
+            throw new LimitExceededException("Entry '" + name + "' is larger than the limit of " + Utils.formatFileSize(maxEntryBytes)
+                    + override("--max-entry-size"));
+        if (entryBytes > RATIO_THRESHOLD && entryBytes > maxRatio * Math.max(compressedSize, 1))
+            throw new LimitExceededException(String.format("Entry '%s' exceeds the compression ratio limit of %.0f:1%s", name, maxRatio,
+                    override("--max-ratio")));
+        if (totalBytes > maxTotalBytes)
+            throw new LimitExceededException("The extracted data is larger than the limit of " + Utils.formatFileSize(maxTotalBytes)
+                    + override("--max-size"));
+    }
+
+    /** Tells how to raise a limit, on the command line or for a trusted archive. */
+    private static String override(String option) {
+        return ". Raise it with " + option + ", or extract a trusted archive with --no-limits";
+    }
+
+    /**
+     * Thrown when an extraction crosses one of the limits.
+     */
+    public static final class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(String message) {
+            super(message);
+        }
+
+    }
+
+}
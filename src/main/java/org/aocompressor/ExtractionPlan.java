@@ -0,0 +1,120 @@
+package org.aocompressor;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Decides where every entry of an archive is extracted, without touching the file system for each entry.
+ * <p>
+ * The target folder is resolved to its real path once. Entry names are then validated lexically: names that are absolute,
+ * that contain a {@code ..} segment or that do not resolve to a path under the target folder are rejected, for {@code /} and
+ * {@code \} separators alike. The folders needed by the accepted entries are collected parents first and each one is created
+ * exactly once by {@link #createDirectories()}. A folder that already exists as a file or a symbolic link is rejected along
+ * with everything under it, and files must be opened with {@link LinkOption#NOFOLLOW_LINKS}, so a link left in the target
+ * folder cannot redirect the data either.
+ */
+
+final class ExtractionPlan {
+
+    private final Path root;
+    /** Folders to create, every one after its parent. */
+    private final Set<Path> directories = new LinkedHashSet<>();
+    /** Folders that could not be used, so nothing is extracted under them. */
+    private final Set<Path> rejected = new HashSet<>();
+    /** Folders created by {@link #createDirectories()}, removed again by {@link #rollBack(List)}. */
+    private final List<Path> created = new ArrayList<>();
+
+    ExtractionPlan(Path targetDir) throws IOException {
+        root = targetDir.toRealPath();
+        directories.add(root);
+    }
+
+    Path root() {
+        return root;
+    }
+
+    /**
+     * Returns the path where an entry is extracted, or {@code null} if the name would escape the target folder.
+     */
+    Path resolve(String entryName) {
+        if (entryName.isEmpty() || entryName.startsWith("/") || entryName.startsWith("\\")) return null;
+        int start = 0;
+        for (int i = 0; i <= entryName.length(); i++) {
+            if (i == entryName.length() || entryName.charAt(i) == '/' || entryName.charAt(i) == '\\') {
+                if (i - start == 2 && entryName.startsWith("..", start)) return null;
+                start = i + 1;
+            }
+        }
+        try {
+            Path path = root.resolve(entryName).normalize();
+            // Catches what the segment check cannot, like drive-relative names on Windows
+            return path.startsWith(root) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /** Registers a folder to create along with the parents it needs. */
+    void addDirectory(Path directory) {
+        if (directories.contains(directory)) return;
+        Deque<Path> missing = new ArrayDeque<>();
+        for (Path path = directory; path != null && !directories.contains(path); path = path.getParent()) missing.push(path);
+        directories.addAll(missing);
+    }
+
+    /** Registers the parent folders of a file. */
+    void addFile(Path file) {
+        addDirectory(file.getParent());
+    }
+
+    /**
+     * Creates every registered folder that does not exist yet, with one call per folder. Paths that already exist as a file or
+     * a symbolic link are rejected, and so are the folders under them, without being created.
+     *
+     * @throws IOException if a folder cannot be created
+     */
+    void createDirectories() throws IOException {
+        for (Path directory : directories) {
+            if (directory.equals(root)) continue;
+            if (rejected.contains(directory.getParent())) {
+                rejected.add(directory);
+                continue;
+            }
+            try {
+                Files.createDirectory(directory);
+                created.add(directory);
+            } catch (FileAlreadyExistsException e) {
+                if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) rejected.add(directory);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a file can be extracted, which is false when one of its folders was rejected by
+     * {@link #createDirectories()}.
+     */
+    boolean accepts(Path file) {
+        return rejected.isEmpty() || !rejected.contains(file.getParent());
+    }
+
+    /**
+     * Deletes the files written by a failed extraction and then the folders it created, deepest first. Folders that are not
+     * empty are left alone, so nothing that was there before the extraction is removed.
+     */
+    void rollBack(List<Path> files) {
+        for (Path file : files) Utils.deletePath(file);
+        for (int i = created.size() - 1; i >= 0; i--) Utils.deletePath(created.get(i));
+    }
+
+}
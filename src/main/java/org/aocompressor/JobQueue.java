@@ -0,0 +1,173 @@
+package org.aocompressor;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Queue of the operations started from the window, run by a bounded number of worker threads.
+ * <p>
+ * Every job gets a row with its title, its own progress bar and a cancel button, and the window stays usable while jobs run,
+ * so several archives can be queued and left to run. Jobs beyond the {@link #parallelism(int)} wait in order for a free
+ * thread. Cancelling a waiting job drops it; cancelling a running one makes its {@link ProgressListener#cancelled()} return
+ * true, so the operation stops at its next buffer and deletes what it wrote.
+ * <p>
+ * Every method must be called on the EDT, except {@link Job#cancelled()}, which the worker of the job calls from its thread.
+ */
+
+public final class JobQueue {
+
+    /** Rows shown before the list scrolls. */
+    private static final int VISIBLE_ROWS = 3;
+    private static final int ROW_HEIGHT = 19;
+
+    private final ThreadPoolExecutor executor;
+    private final Supplier<JProgressBar> progressBars;
+    private final JPanel rows = new JPanel();
+    private final JScrollPane scrollPane = new JScrollPane(rows);
+
+    /**
+     * @param progressBars creates the progress bar of every job, so they look like the rest of the window
+     */
+    public JobQueue(int parallelism, Supplier<JProgressBar> progressBars) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "job-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.progressBars = progressBars;
+        rows.setLayout(new BoxLayout(rows, BoxLayout.Y_AXIS));
+        scrollPane.setBorder(BorderFactory.createEmptyBorder(0, 5, 5, 5));
+        scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollPane.getVerticalScrollBar().setUnitIncrement(ROW_HEIGHT);
+        scrollPane.setVisible(false);
+    }
+
+    /** Returns the list of jobs, which is only visible while there are any. */
+    public JComponent component() {
+        return scrollPane;
+    }
+
+    public int parallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets how many jobs run at the same time. Running jobs are never interrupted: when it shrinks, the extra threads end as
+     * their jobs finish.
+     */
+    public void parallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        // The core size may never exceed the maximum, so the order depends on the direction
+        if (parallelism > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(parallelism);
+            executor.setCorePoolSize(parallelism);
+        } else {
+            executor.setCorePoolSize(parallelism);
+            executor.setMaximumPoolSize(parallelism);
+        }
+    }
+
+    /** Returns the number of jobs waiting or running. */
+    public int size() {
+        return rows.getComponentCount();
+    }
+
+    /**
+     * Adds the row of a job, which waits until it is {@link #start(Job, SwingWorker) started}.
+     */
+    Job add(String title) {
+        Job job = new Job(title, progressBars.get());
+        rows.add(job.row);
+        refresh();
+        return job;
+    }
+
+    /**
+     * Queues the worker of a job, which runs as soon as a thread is free unless the job is cancelled first. The worker must call
+     * {@link Job#finished()} from its {@code done()}.
+     */
+    void start(Job job, SwingWorker<?, ?> worker) {
+        job.worker = worker;
+        executor.execute(() -> {
+            if (job.dequeued.compareAndSet(false, true)) worker.run();
+        });
+    }
+
+    private void remove(Job job) {
+        rows.remove(job.row);
+        refresh();
+    }
+
+    private void refresh() {
+        int visible = Math.min(rows.getComponentCount(), VISIBLE_ROWS);
+        scrollPane.setPreferredSize(new Dimension(0, visible * ROW_HEIGHT + 5));
+        scrollPane.setVisible(visible > 0);
+        scrollPane.revalidate();
+        scrollPane.repaint();
+    }
+
+    /**
+     * The row of a job in the queue.
+     */
+    final class Job {
+
+        private final JPanel row = new JPanel(new BorderLayout(5, 0));
+        private final JLabel label;
+        private final JProgressBar progressBar;
+        private final JButton cancelButton = new JButton("Cancel");
+        private SwingWorker<?, ?> worker;
+        /** Claimed by whichever comes first: the thread that runs the worker, or a cancel while the job waits. */
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+        private volatile boolean cancelled;
+
+        private Job(String title, JProgressBar progressBar) {
+            this.progressBar = progressBar;
+            label = new JLabel(title);
+            label.setFont(new Font("Consolas", Font.PLAIN, 11));
+            label.setPreferredSize(new Dimension(220, ROW_HEIGHT - 4));
+            label.setToolTipText(title);
+            cancelButton.setFocusable(false);
+            cancelButton.setMargin(new Insets(0, 4, 0, 4));
+            cancelButton.setFont(cancelButton.getFont().deriveFont(10f));
+            cancelButton.addActionListener(e -> cancel());
+            row.setBorder(BorderFactory.createEmptyBorder(2, 0, 2, 0));
+            row.setMaximumSize(new Dimension(Integer.MAX_VALUE, ROW_HEIGHT));
+            row.add(label, BorderLayout.WEST);
+            row.add(progressBar);
+            row.add(cancelButton, BorderLayout.EAST);
+            progressBar.setStringPainted(true);
+            progressBar.setString("Waiting");
+        }
+
+        JProgressBar progressBar() {
+            return progressBar;
+        }
+
+        boolean cancelled() {
+            return cancelled;
+        }
+
+        /** Removes the row once the job has finished, failed or been cancelled. */
+        void finished() {
+            remove(this);
+        }
+
+        private void cancel() {
+            cancelled = true;
+            cancelButton.setEnabled(false);
+            progressBar.setString("Cancelling...");
+            // A job that never started has nothing to clean up, and its thread skips it. Once running, only the flag above
+            // stops it, so done() never runs while the worker is still writing
+            if (dequeued.compareAndSet(false, true) && worker != null) worker.cancel(false);
+        }
+
+    }
+
+}
@@ -6,12 +6,48 @@ import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 import java.awt.*;
-
-public record Logger(JTextPane textPane) {
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Colorized log of the window, safe to call from any thread.
+ * <p>
+ * Messages are appended to a lock-free queue and never touch the document on the calling thread, so a worker that logs every
+ * skipped entry of a broken archive does not wait for the EDT. Every {@value #FLUSH_INTERVAL_MS}ms a timer on the EDT drains the
+ * queue and inserts each run of messages of the same level with a single {@code insertString}, then moves the caret once.
+ * <p>
+ * Both ends are bounded. When {@value #MAX_PENDING} messages are already waiting, further info messages are dropped and
+ * counted, and the count is logged as a warning with the next batch; warnings, errors and results are always kept. The
+ * document keeps the last {@value #MAX_LINES} messages: the length of each one is kept in a ring buffer, and the oldest are
+ * removed from the top in one call once it is full.
+ */
+
+public final class Logger {
+
+    static final int FLUSH_INTERVAL_MS = 50;
+    /** Messages kept in the document. */
+    static final int MAX_LINES = 5_000;
+    /** Info messages waiting for the EDT beyond which new ones are dropped. */
+    static final int MAX_PENDING = 10_000;
+
+    private final JTextPane textPane;
+    private final Queue<Line> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /** Dropped messages not yet reported in the log. */
+    private final AtomicLong unreported = new AtomicLong();
+
+    /** Lengths of the messages in the document, oldest at {@code first}. Only used on the EDT. */
+    private final int[] lengths = new int[MAX_LINES];
+    private int first, lines;
 
     public Logger(JTextPane textPane) {
         this.textPane = textPane;
         initializeStyles();
+        new Timer(FLUSH_INTERVAL_MS, e -> flush()).start();
     }
 
     public void log(String message) {
@@ -35,14 +71,78 @@ public record Logger(JTextPane textPane) {
     }
 
     private void log(String message, Level level) {
+        if (pendingCount.incrementAndGet() > MAX_PENDING && level == Level.INFO) {
+            pendingCount.decrementAndGet();
+            unreported.incrementAndGet();
+            return;
+        }
+        pending.add(new Line(message == null ? "" : message, level));
+    }
+
+    /**
+     * Inserts the pending messages on the EDT. Only the messages already queued when it starts are taken, so producers that
+     * keep logging cannot hold the EDT here.
+     */
+    private void flush() {
+        int count = pendingCount.get();
+        long droppedLines = unreported.getAndSet(0);
+        if (count == 0 && droppedLines == 0) return;
+
+        List<Line> batch = new ArrayList<>(count + 1);
+        Line line;
+        while (batch.size() < count && (line = pending.poll()) != null) batch.add(line);
+        pendingCount.addAndGet(-batch.size());
+        // Messages that would be removed right away are never inserted, keeping room for the note on dropped messages
+        int start = Math.max(0, batch.size() - (droppedLines > 0 ? MAX_LINES - 1 : MAX_LINES));
+        // Ahead of the batch, so the result of the operation stays the last line
+        if (droppedLines > 0) batch.add(start, new Line(String.format("%d message%s dropped, the log could not keep up", droppedLines,
+                droppedLines != 1 ? "s" : ""), Level.WARN));
+
         StyledDocument doc = textPane.getStyledDocument();
+        StringBuilder run = new StringBuilder();
+        Level runLevel = null;
+        int removed = 0;
+        for (int i = start; i < batch.size(); i++) {
+            Line next = batch.get(i);
+            if (next.level() != runLevel && !run.isEmpty()) {
+                insert(doc, run, runLevel);
+                run.setLength(0);
+            }
+            runLevel = next.level();
+            run.append(next.text()).append('\n');
+            removed += push(next.text().length() + 1);
+        }
+        if (!run.isEmpty()) insert(doc, run, runLevel);
         try {
-            doc.insertString(doc.getLength(), (message == null ? "" : message) + "\n", textPane.getStyle(level.name()));
+            if (removed > 0) doc.remove(0, removed);
         } catch (BadLocationException ignored) {
         }
         textPane.setCaretPosition(doc.getLength());
     }
 
+    /**
+     * Records the length of a new message in the ring buffer.
+     *
+     * @return the length of the oldest message, which must be removed from the document, or 0 if the buffer was not full
+     */
+    private int push(int length) {
+        int evicted = 0;
+        if (lines == MAX_LINES) {
+            evicted = lengths[first];
+            first = (first + 1) % MAX_LINES;
+            lines--;
+        }
+        lengths[(first + lines++) % MAX_LINES] = length;
+        return evicted;
+    }
+
+    private void insert(StyledDocument doc, StringBuilder text, Level level) {
+        try {
+            doc.insertString(doc.getLength(), text.toString(), textPane.getStyle(level.name()));
+        } catch (BadLocationException ignored) {
+        }
+    }
+
     private void initializeStyles() {
         Style base = textPane.addStyle("BASE", null);
 
@@ -61,4 +161,7 @@ public record Logger(JTextPane textPane) {
 
     private enum Level {INFO, SUCCESS, WARN, ERROR}
 
+    private record Line(String text, Level level) {
+    }
+
 }
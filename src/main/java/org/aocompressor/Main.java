@@ -0,0 +1,20 @@
+package org.aocompressor;
+
+/**
+ * Entry point of the jar. With arguments it runs the headless {@link Cli}; without them it opens the {@link App} window.
+ * <p>
+ * The window is only referenced on that second path, so a command line run on a build server never loads {@code App}, Swing
+ * or AWT.
+ */
+
+public final class Main {
+
+    private Main() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0) System.exit(Cli.run(args));
+        App.main(args);
+    }
+
+}
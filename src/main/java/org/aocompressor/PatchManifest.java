@@ -0,0 +1,67 @@
+package org.aocompressor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Manifest of a patch archive, which rebuilds a new version of an archive from the old one.
+ * <p>
+ * A patch holds the raw data of the entries that were added or changed, plus this manifest as the {@value #NAME} entry. The
+ * manifest lists every entry of the new archive in order, one per line in UTF-8, either as
+ * {@code copy<TAB>name<TAB>modifiedTime<TAB>source<TAB>crc<TAB>size} for an entry whose data is copied from the {@code source}
+ * entry of the old archive, which must have that CRC and size, or as {@code add<TAB>name<TAB>modifiedTime} for an entry whose
+ * data is copied from the patch. Entries of the old archive that are not listed are removed.
+ */
+
+final class PatchManifest {
+
+    static final String NAME = ".ao-patch";
+
+    private PatchManifest() {
+    }
+
+    static byte[] format(List<Step> steps) {
+        StringBuilder sb = new StringBuilder();
+        for (Step step : steps) {
+            if (step.source() == null) sb.append("add\t").append(step.name()).append('\t').append(step.modifiedTime());
+            else sb.append("copy\t").append(step.name()).append('\t').append(step.modifiedTime()).append('\t').append(step.source())
+                    .append('\t').append(Long.toHexString(step.crc())).append('\t').append(step.size());
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a manifest. Unlike the alias manifest, a malformed line fails the whole patch, since skipping it would rebuild an
+     * archive that silently lacks an entry.
+     */
+    static List<Step> parse(byte[] data) throws ZipException {
+        List<Step> steps = new ArrayList<>();
+        for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\t", -1);
+            try {
+                if (fields[0].equals("add") && fields.length == 3) steps.add(new Step(fields[1], Long.parseLong(fields[2]), null, 0, 0));
+                else if (fields[0].equals("copy") && fields.length == 6)
+                    steps.add(new Step(fields[1], Long.parseLong(fields[2]), fields[3], Long.parseLong(fields[4], 16), Long.parseLong(fields[5])));
+                else throw new ZipException("Invalid patch manifest line: " + line);
+            } catch (NumberFormatException e) {
+                throw new ZipException("Invalid patch manifest line: " + line);
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * An entry of the new archive.
+     *
+     * @param source name of the entry of the old archive to copy, or {@code null} if the data is in the patch
+     * @param crc    CRC the old entry must have, or {@code 0} if the data is in the patch
+     * @param size   uncompressed size the old entry must have, or {@code 0} if the data is in the patch
+     */
+    record Step(String name, long modifiedTime, String source, long crc, long size) {
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.aocompressor;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Preset dictionary shared by the small entries of an archive.
+ * <p>
+ * Every deflate stream starts with an empty window, so a file of a few hundred bytes cannot refer back to the keys, headers and
+ * boilerplate it shares with thousands of similar files. A preset dictionary fills the window before the first byte: the
+ * entries of up to {@value #MAX_FILE_SIZE} bytes are deflated with {@link Deflater#setDictionary(byte[])} and
+ * inflated with the same dictionary, which is stored once as the {@value #NAME} entry.
+ * <p>
+ * The dictionary is trained from a sample of the small files. Every run of {@value #K} bytes is counted once per file it
+ * appears in, the files are cut into segments of {@value #SEGMENT} bytes scored by the runs they share with other files, and
+ * the best segments are taken greedily until the dictionary is full. Runs already covered by a chosen segment no longer count,
+ * so the dictionary does not repeat itself. The best segments go at the end, where the distances to them are the shortest.
+ * <p>
+ * Entries compressed with the dictionary are marked with an extra field of their own, so they can only be read by this tool:
+ * other ZIP tools see them as corrupt.
+ */
+
+final class PresetDictionary {
+
+    static final String NAME = ".ao-dictionary";
+
+    /** Largest dictionary, which is the deflate window: anything further back cannot be referenced. */
+    static final int MAX_SIZE = 32 * 1024;
+    /** Files up to this size are compressed with the dictionary. */
+    static final long MAX_FILE_SIZE = 16 * 1024;
+    /** Fewer small files than this are not worth a dictionary. */
+    static final int MIN_FILES = 32;
+    /** Bytes of small files read to train the dictionary. */
+    static final int SAMPLE_BYTES = 4 * 1024 * 1024;
+
+    /** Length of the runs counted across files. */
+    private static final int K = 8;
+    private static final int SEGMENT = 64;
+    private static final int TABLE_BITS = 20;
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private PresetDictionary() {
+    }
+
+    /**
+     * Returns whether a file of that size deflated with that codec uses the dictionary. Huffman-only coding never looks for
+     * matches, so it has nothing to gain from one.
+     */
+    static boolean appliesTo(CompressionProfile.Codec codec, long size) {
+        return size <= MAX_FILE_SIZE && codec.method() == ZipEntry.DEFLATED && codec.strategy() != Deflater.HUFFMAN_ONLY;
+    }
+
+    /**
+     * Trains a dictionary from a sample of the files, spread evenly over the list so every folder is represented.
+     *
+     * @return the dictionary, or {@code null} if there are too few files or they share nothing worth it
+     */
+    static byte[] train(List<SourceManifest.Entry> files, ProgressTracker tracker) throws IOException {
+        if (files.size() < MIN_FILES) return null;
+        long totalBytes = files.stream().mapToLong(SourceManifest.Entry::size).sum();
+        double step = Math.max(1.0, (double) totalBytes / SAMPLE_BYTES);
+        List<byte[]> samples = new ArrayList<>();
+        for (double i = 0; i < files.size(); i += step) {
+            tracker.check();
+            samples.add(Files.readAllBytes(files.get((int) i).path()));
+        }
+        byte[] dictionary = train(samples, MAX_SIZE);
+        return dictionary.length > 0 ? dictionary : null;
+    }
+
+    /**
+     * Trains a dictionary of up to {@code maxSize} bytes from the samples.
+     */
+    static byte[] train(List<byte[]> samples, int maxSize) {
+        int[] counts = new int[1 << TABLE_BITS];
+        int[] lastSample = new int[1 << TABLE_BITS];
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int pos = 0; pos + K <= sample.length; pos++) {
+                int h = hash(sample, pos);
+                if (lastSample[h] != s + 1) {
+                    lastSample[h] = s + 1;
+                    counts[h]++;
+                }
+            }
+        }
+
+        PriorityQueue<Segment> queue = new PriorityQueue<>((a, b) -> Long.compare(b.score(), a.score()));
+        for (byte[] sample : samples) {
+            for (int start = 0; start + K <= sample.length; start += SEGMENT) {
+                int end = Math.min(start + SEGMENT, sample.length);
+                long score = score(sample, start, end, counts);
+                if (score > 0) queue.add(new Segment(sample, start, end, score));
+            }
+        }
+
+        byte[] dictionary = new byte[maxSize];
+        int free = maxSize;
+        while (free > 0 && !queue.isEmpty()) {
+            Segment segment = queue.poll();
+            // Runs taken by better segments no longer count, so the score may have dropped since it was queued
+            long score = score(segment.sample(), segment.start(), segment.end(), counts);
+            if (score == 0) continue;
+            if (!queue.isEmpty() && score < queue.peek().score()) {
+                queue.add(new Segment(segment.sample(), segment.start(), segment.end(), score));
+                continue;
+            }
+            int length = Math.min(segment.end() - segment.start(), free);
+            System.arraycopy(segment.sample(), segment.end() - length, dictionary, free - length, length);
+            free -= length;
+            for (int pos = segment.start(); pos + K <= segment.end(); pos++) counts[hash(segment.sample(), pos)] = 0;
+        }
+        return free == 0 ? dictionary : Arrays.copyOfRange(dictionary, free, maxSize);
+    }
+
+    /** Sums how many files share each run of the segment, ignoring the runs that appear in a single file. */
+    private static long score(byte[] sample, int start, int end, int[] counts) {
+        long score = 0;
+        for (int pos = start; pos + K <= end; pos++) {
+            int count = counts[hash(sample, pos)];
+            if (count > 1) score += count;
+        }
+        return score;
+    }
+
+    private static int hash(byte[] data, int pos) {
+        return (int) (((long) LONG.get(data, pos) * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+    }
+
+    private record Segment(byte[] sample, int start, int end, long score) {
+    }
+
+}
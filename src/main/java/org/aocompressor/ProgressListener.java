@@ -0,0 +1,33 @@
+package org.aocompressor;
+
+/**
+ * Receives the progress of a compression or decompression.
+ * <p>
+ * Calls are throttled to a few per second and made from a background thread, never from the threads that copy the data, so
+ * implementations that update a UI must hand the values over to their own thread.
+ */
+
+@FunctionalInterface
+public interface ProgressListener {
+
+    /** Listener that ignores every update. */
+    ProgressListener NONE = (bytesProcessed, totalBytes, currentEntry) -> {
+    };
+
+    /**
+     * @param bytesProcessed uncompressed bytes processed so far
+     * @param totalBytes     uncompressed bytes of the whole operation, or {@code -1} while still unknown
+     * @param currentEntry   name of the last entry started, or an empty string
+     */
+    void progress(long bytesProcessed, long totalBytes, String currentEntry);
+
+    /**
+     * Returns whether the operation should stop. It is polled along with the progress and by the threads that scan the source
+     * folder, and once it returns true the copy loops stop at their next buffer, the partial output is deleted and the
+     * operation fails as cancelled.
+     */
+    default boolean cancelled() {
+        return false;
+    }
+
+}
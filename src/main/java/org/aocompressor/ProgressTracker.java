@@ -0,0 +1,86 @@
+package org.aocompressor;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the bytes processed by the worker threads and reports them to a {@link ProgressListener} on a timer.
+ * <p>
+ * The copy loops only add to a {@link LongAdder} once per buffer and write the current entry name to a volatile field, so
+ * reporting adds no locking or allocation to them. A daemon thread samples the counters every {@value #INTERVAL_MS}ms and
+ * calls the listener, and {@link #close()} reports the final values once more.
+ * <p>
+ * The same thread polls {@link ProgressListener#cancelled()}. Once the operation is cancelled, the next call to
+ * {@link #add(long)} or {@link #entry(String)} on any thread throws a {@link CancellationException}, so every copy loop stops
+ * within a buffer without checking anything itself. Loops that report no bytes, like hashing, call {@link #check()} instead.
+ */
+
+final class ProgressTracker implements AutoCloseable {
+
+    private static final long INTERVAL_MS = 100;
+
+    private final ProgressListener listener;
+    private final LongAdder bytes = new LongAdder();
+    private final ScheduledExecutorService timer;
+    private volatile long totalBytes = -1;
+    private volatile String currentEntry = "";
+    private volatile boolean cancelled;
+
+    ProgressTracker(ProgressListener listener) {
+        this.listener = listener;
+        if (listener == ProgressListener.NONE) timer = null;
+        else {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(this::report, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void total(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    void entry(String name) {
+        if (cancelled) throw new CancellationException("Cancelled");
+        currentEntry = name;
+    }
+
+    void add(long n) {
+        if (cancelled) throw new CancellationException("Cancelled");
+        bytes.add(n);
+    }
+
+    /** Throws a {@link CancellationException} if the operation was cancelled. */
+    void check() {
+        if (cancelled) throw new CancellationException("Cancelled");
+    }
+
+    boolean cancelled() {
+        return cancelled;
+    }
+
+    /** Stops the timer and reports the final values. */
+    @Override
+    public void close() {
+        if (timer == null) return;
+        timer.shutdownNow();
+        try {
+            timer.awaitTermination(1, TimeUnit.SECONDS); // So a late sample cannot arrive after the final one
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report();
+    }
+
+    private void report() {
+        if (listener.cancelled()) cancelled = true;
+        listener.progress(bytes.sum(), totalBytes, currentEntry);
+    }
+
+}
@@ -0,0 +1,239 @@
+package org.aocompressor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of a single operation of the {@link Compressor} went: the time spent in every {@link Phase}, the entries,
+ * bytes and time of every method, and the {@value #SLOWEST} slowest entries.
+ * <p>
+ * Recording is cheap enough to stay on for every run. A phase costs one {@link System#nanoTime()} call at each boundary, added
+ * to a {@link LongAdder} so the workers never contend on it, and an entry faster than the slowest ones already kept is dropped
+ * after a single volatile read. The phases are summed over every thread, so with several workers they add up to more than the
+ * wall time: they tell which phase dominates, not how long the run took.
+ */
+
+public final class RunReport {
+
+    /** Number of slowest entries kept. */
+    static final int SLOWEST = 20;
+
+    public enum Phase {
+        /** Walking the source folder. */
+        SCAN,
+        /** Reading the central directory and the entries of the tool itself, like the alias manifest. */
+        INDEX,
+        /** Hashing the files that share their size, to find duplicates. */
+        HASH,
+        /** Training the preset dictionary. */
+        TRAIN,
+        /** Opening and reading source files, or reading raw entry data from an archive. */
+        READ,
+        /** Computing the CRC of the data. */
+        CHECKSUM,
+        /** Deflating the data, including the samples deflated to choose a codec. */
+        DEFLATE,
+        INFLATE,
+        /** Creating and writing files, including entries copied as raw bytes from another archive. */
+        WRITE,
+        /** Creating the folders of an extraction. */
+        DIRECTORIES,
+        /** The writer waiting for the workers to deflate the next entry in order. */
+        WAIT;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final String operation, source, target;
+    private final int threads;
+    private final long start = System.nanoTime(), startedAt = System.currentTimeMillis();
+    private final LongAdder[] phases = new LongAdder[Phase.values().length];
+    private final Map<String, Totals> methods = new ConcurrentHashMap<>();
+    /** The slowest entries, fastest first so the one to drop is at the head. */
+    private final PriorityQueue<Entry> slowest = new PriorityQueue<>(Comparator.comparingLong(Entry::nanos));
+    /** Time an entry must exceed to be kept, once {@link #SLOWEST} entries are. */
+    private volatile long threshold = -1;
+    private long wallNanos = -1;
+    private Compressor.Result result;
+
+    /**
+     * @param target target of the operation, or {@code null} if it does not write anything
+     */
+    RunReport(String operation, String source, String target, int threads) {
+        this.operation = operation;
+        this.source = source;
+        this.target = target;
+        this.threads = threads;
+        for (int i = 0; i < phases.length; i++) phases[i] = new LongAdder();
+    }
+
+    /**
+     * Adds the time since {@code since} to a phase.
+     *
+     * @return the current time, to start the next phase from without another call
+     */
+    long add(Phase phase, long since) {
+        long now = System.nanoTime();
+        phases[phase.ordinal()].add(now - since);
+        return now;
+    }
+
+    /**
+     * Records an entry.
+     *
+     * @param method          codec or method the entry was processed with, like {@code best}, {@code deflated} or {@code copied}
+     * @param compressedBytes size of the entry in the archive
+     * @param nanos           time spent on the entry by the thread that processed it
+     */
+    void entry(String name, String method, long rawBytes, long compressedBytes, long nanos) {
+        methods.computeIfAbsent(method, m -> new Totals()).add(rawBytes, compressedBytes, nanos);
+        if (nanos <= threshold) return;
+        synchronized (slowest) {
+            slowest.add(new Entry(name, method, rawBytes, compressedBytes, nanos));
+            if (slowest.size() > SLOWEST) slowest.poll();
+            if (slowest.size() == SLOWEST) threshold = slowest.peek().nanos();
+        }
+    }
+
+    /**
+     * Stops the clock and attaches the report to the result of the operation.
+     */
+    Compressor.Result finish(Compressor.Result result) {
+        Compressor.Result reported = new Compressor.Result(result.filesProcessed(), result.success(), result.message(), result.details(), this);
+        synchronized (this) {
+            wallNanos = System.nanoTime() - start;
+            this.result = reported;
+        }
+        return reported;
+    }
+
+    public String operation() {
+        return operation;
+    }
+
+    /** Returns the time from the start of the operation to its end, or until now if it is still running. */
+    public synchronized long wallNanos() {
+        return wallNanos >= 0 ? wallNanos : System.nanoTime() - start;
+    }
+
+    /** Returns the time spent in a phase, summed over every thread. */
+    public long phaseNanos(Phase phase) {
+        return phases[phase.ordinal()].sum();
+    }
+
+    /** Returns the slowest entries, slowest first. */
+    public List<Entry> slowest() {
+        synchronized (slowest) {
+            List<Entry> entries = new ArrayList<>(slowest);
+            entries.sort(Comparator.comparingLong(Entry::nanos).reversed());
+            return entries;
+        }
+    }
+
+    /**
+     * Returns the phases that took at least a millisecond, longest first, like {@code deflate 2140ms, read 310ms, write 95ms}.
+     */
+    public String phaseSummary() {
+        StringJoiner joiner = new StringJoiner(", ");
+        List<Phase> sorted = new ArrayList<>(List.of(Phase.values()));
+        sorted.sort(Comparator.comparingLong(this::phaseNanos).reversed());
+        for (Phase phase : sorted) {
+            long ms = phaseNanos(phase) / 1_000_000;
+            if (ms > 0) joiner.add(phase.key() + " " + ms + "ms");
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Formats the report as a JSON object. Times are in milliseconds and phases that never ran are left out.
+     */
+    public String toJson() {
+        Compressor.Result result;
+        synchronized (this) {
+            result = this.result;
+        }
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"operation\": ").append(Utils.toJsonString(operation)).append(",\n");
+        sb.append("  \"source\": ").append(Utils.toJsonString(source)).append(",\n");
+        sb.append("  \"target\": ").append(Utils.toJsonString(target)).append(",\n");
+        sb.append("  \"startedAt\": ").append(startedAt).append(",\n");
+        if (result != null) {
+            sb.append("  \"success\": ").append(result.success()).append(",\n");
+            sb.append("  \"files\": ").append(Math.max(result.filesProcessed(), 0)).append(",\n");
+            sb.append("  \"message\": ").append(Utils.toJsonString(result.message())).append(",\n");
+        }
+        sb.append("  \"threads\": ").append(threads).append(",\n");
+        sb.append("  \"wallMs\": ").append(millis(wallNanos())).append(",\n");
+
+        sb.append("  \"phasesMs\": {");
+        String separator = "";
+        for (Phase phase : Phase.values()) {
+            long nanos = phaseNanos(phase);
+            if (nanos == 0) continue;
+            sb.append(separator).append(Utils.toJsonString(phase.key())).append(": ").append(millis(nanos));
+            separator = ", ";
+        }
+        sb.append("},\n");
+
+        List<Map.Entry<String, Totals>> byTime = new ArrayList<>(methods.entrySet());
+        byTime.sort(Comparator.comparingLong((Map.Entry<String, Totals> e) -> e.getValue().nanos.sum()).reversed());
+        sb.append("  \"methods\": [");
+        for (int i = 0; i < byTime.size(); i++) {
+            Totals totals = byTime.get(i).getValue();
+            sb.append(i == 0 ? "\n" : ",\n").append("    {\"method\": ").append(Utils.toJsonString(byTime.get(i).getKey()))
+                    .append(", \"entries\": ").append(totals.entries.sum())
+                    .append(", \"rawBytes\": ").append(totals.rawBytes.sum())
+                    .append(", \"compressedBytes\": ").append(totals.compressedBytes.sum())
+                    .append(", \"ms\": ").append(millis(totals.nanos.sum())).append('}');
+        }
+        sb.append(byTime.isEmpty() ? "],\n" : "\n  ],\n");
+
+        List<Entry> entries = slowest();
+        sb.append("  \"slowest\": [");
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            sb.append(i == 0 ? "\n" : ",\n").append("    {\"name\": ").append(Utils.toJsonString(entry.name()))
+                    .append(", \"method\": ").append(Utils.toJsonString(entry.method()))
+                    .append(", \"rawBytes\": ").append(entry.rawBytes())
+                    .append(", \"compressedBytes\": ").append(entry.compressedBytes())
+                    .append(", \"ms\": ").append(millis(entry.nanos())).append('}');
+        }
+        sb.append(entries.isEmpty() ? "]\n" : "\n  ]\n");
+        return sb.append('}').toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    /**
+     * An entry of the operation.
+     *
+     * @param nanos time spent on the entry by the thread that processed it
+     */
+    public record Entry(String name, String method, long rawBytes, long compressedBytes, long nanos) {
+    }
+
+    private static final class Totals {
+
+        final LongAdder entries = new LongAdder(), rawBytes = new LongAdder(), compressedBytes = new LongAdder(), nanos = new LongAdder();
+
+        void add(long raw, long compressed, long time) {
+            entries.increment();
+            rawBytes.add(raw);
+            compressedBytes.add(compressed);
+            nanos.add(time);
+        }
+
+    }
+
+}
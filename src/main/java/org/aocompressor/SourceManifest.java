@@ -0,0 +1,149 @@
+package org.aocompressor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The regular files of a source folder with their relative names, sizes and modification times, collected in a single walk.
+ * <p>
+ * Every file is stat'ed once while its directory is listed, so compression, the size report and the empty folder check all
+ * work from the same snapshot instead of walking the tree again. Each directory is listed by its own fork-join task, so a
+ * large tree (or a slow network share, where most of the time is spent waiting on the file system) is split across the
+ * threads of the pool. Like {@link Files#walk}, symbolic links to files are included and symbolic links to directories are
+ * not followed.
+ */
+
+public final class SourceManifest {
+
+    private final Path root;
+    private final List<Entry> files;
+    private final long totalBytes;
+
+    private SourceManifest(Path root, List<Entry> files) {
+        this.root = root;
+        this.files = files;
+        this.totalBytes = files.stream().mapToLong(Entry::size).sum();
+    }
+
+    /**
+     * Walks {@code root} with up to {@code parallelism} threads.
+     */
+    public static SourceManifest scan(Path root, int parallelism) throws IOException {
+        return scan(root, parallelism, () -> false);
+    }
+
+    /**
+     * Walks {@code root} with up to {@code parallelism} threads, stopping with a {@link CancellationException} before the next
+     * directory is listed once {@code cancelled} returns true.
+     */
+    public static SourceManifest scan(Path root, int parallelism, BooleanSupplier cancelled) throws IOException {
+        if (!Files.isDirectory(root)) throw new IOException("The folder '" + root + "' does not exist.");
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Entry> files = new ArrayList<>(pool.invoke(new DirectoryScan(root, root, cancelled)));
+            // The same order as a sorted walk, so the same folder always produces the same entry layout
+            files.sort(Comparator.comparing(Entry::path));
+            return new SourceManifest(root, List.copyOf(files));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /** Returns the files sorted by path. */
+    public List<Entry> files() {
+        return files;
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /** Returns the sum of the sizes of every file. */
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * A regular file of the source folder.
+     *
+     * @param name         path relative to the root with {@code /} separators, as stored in the archive
+     * @param modifiedTime last modification time in milliseconds since the epoch
+     */
+    public record Entry(Path path, String name, long size, long modifiedTime) {
+    }
+
+    /**
+     * Lists a directory, forking a task for each subdirectory.
+     */
+    private static final class DirectoryScan extends RecursiveTask<List<Entry>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path root, directory;
+        private final BooleanSupplier cancelled;
+
+        DirectoryScan(Path root, Path directory, BooleanSupplier cancelled) {
+            this.root = root;
+            this.directory = directory;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            if (cancelled.getAsBoolean()) throw new CancellationException("Cancelled");
+            List<Entry> files = new ArrayList<>();
+            List<DirectoryScan> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isSymbolicLink()) {
+                        try {
+                            attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                        } catch (IOException e) {
+                            continue; // Broken link
+                        }
+                        if (!attributes.isRegularFile()) continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        DirectoryScan scan = new DirectoryScan(root, child, cancelled);
+                        scan.fork();
+                        subdirectories.add(scan);
+                    } else if (attributes.isRegularFile()) {
+                        String name = root.relativize(child).toString().replace('\\', '/');
+                        files.add(new Entry(child, name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch (IOException e) {
+                // Join the forked tasks first so none is left running after the scan fails
+                subdirectories.forEach(DirectoryScan::quietlyJoin);
+                throw new UncheckedIOException(e);
+            }
+            for (DirectoryScan scan : subdirectories) files.addAll(scan.join());
+            return files;
+        }
+
+    }
+
+}
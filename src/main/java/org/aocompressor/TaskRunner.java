@@ -4,24 +4,21 @@ import org.aocompressor.Compressor.Result;
 
 import javax.swing.*;
 import java.util.List;
-import java.util.function.Supplier;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
 
 /**
- * Builder pattern for running background tasks with a progress indication.
+ * Builder pattern for running background tasks with a progress indication. Every task is a job of a {@link JobQueue}, with
+ * its own progress bar and cancel button.
  */
 
 public class TaskRunner {
 
-    /** The result of the operation. */
-    private Supplier<Result> task;
+    /** The operation, which reports its progress to the given listener and returns its result. */
+    private Function<ProgressListener, Result> task;
     private Logger logger;
-    private JProgressBar progressBar;
-    private String operationType, targetPath;
-    /** Pre-publish logs. */
-    private Supplier<List<String>> postLogs;
-    /** Callbacks for when the operation starts and finishes. */
-    private Runnable onStart;
-    private Runnable onFinish;
+    private JobQueue queue;
+    private String title, operationType, targetPath;
 
     private TaskRunner() {
     }
@@ -30,7 +27,7 @@ public class TaskRunner {
         return new TaskRunner();
     }
 
-    public TaskRunner task(Supplier<Result> task) {
+    public TaskRunner task(Function<ProgressListener, Result> task) {
         this.task = task;
         return this;
     }
@@ -40,18 +37,14 @@ public class TaskRunner {
         return this;
     }
 
-    public TaskRunner progressBar(JProgressBar progressBar) {
-        this.progressBar = progressBar;
+    public TaskRunner queue(JobQueue queue) {
+        this.queue = queue;
         return this;
     }
 
-    public TaskRunner onStart(Runnable onStart) {
-        this.onStart = onStart;
-        return this;
-    }
-
-    public TaskRunner onFinish(Runnable onFinish) {
-        this.onFinish = onFinish;
+    /** Sets the title of the job in the queue, like {@code Compress 'Graficos'}. */
+    public TaskRunner title(String title) {
+        this.title = title;
         return this;
     }
 
@@ -60,18 +53,16 @@ public class TaskRunner {
         return this;
     }
 
+    /** Sets the path reported with the number of files, if the operation writes anywhere. */
     public TaskRunner targetPath(String targetPath) {
         this.targetPath = targetPath;
         return this;
     }
 
-    public TaskRunner postLogs(Supplier<List<String>> postLogs) {
-        this.postLogs = postLogs;
-        return this;
-    }
-
+    /** Queues the task, which runs as soon as the queue has a free thread. */
     public void execute() {
-        new BackgroundTask().execute();
+        JobQueue.Job job = queue.add(title);
+        queue.start(job, new BackgroundTask(job));
     }
 
     /**
@@ -85,40 +76,83 @@ public class TaskRunner {
      * <p>
      * Features of the BackgroundTask class include:
      * <ul>
-     * <li>Updating a progress bar to reflect the current state of task execution.
-     * <li>Logging progress and final results, with the appropriate handling for success and failure.
-     * <li>Allowing external operations such as initialization and cleanup through provided hooks.
+     * <li>Updating the progress bar of its job with the percentage, throughput and estimated time left reported by the task.
+     * <li>Logging progress and final results, with the appropriate handling for success, failure and cancellation.
      * </ul>
      */
-    private class BackgroundTask extends SwingWorker<Result, String> {
+    private class BackgroundTask extends SwingWorker<Result, String> implements ProgressListener {
+
+        private final JobQueue.Job job;
+        private final JProgressBar progressBar;
+        private long start;
+
+        BackgroundTask(JobQueue.Job job) {
+            this.job = job;
+            this.progressBar = job.progressBar();
+        }
 
         @Override
         protected Result doInBackground() {
             SwingUtilities.invokeLater(() -> {
-                onStart.run(); // Disable buttons
-                progressBar.setIndeterminate(true); // Enable "marquee" animation
+                if (job.cancelled()) return;
+                progressBar.setStringPainted(false);
+                progressBar.setIndeterminate(true); // Enable "marquee" animation until the total is known
             });
 
-            long start = System.nanoTime();
-            Result result = task.get(); // Get the result of the operation from the task
+            start = System.nanoTime();
+            Result result = task.apply(this); // Get the result of the operation from the task
             long time = (System.nanoTime() - start) / 1_000_000;
 
             if (result.success() && result.filesProcessed() > 0) {
 
                 // Publish a message to EDT
-                publish(String.format("%s %d file%s to '%s'", operationType, result.filesProcessed(), result.filesProcessed() != 1 ? "s" : "", targetPath));
+                publish(String.format("%s %d file%s%s", operationType, result.filesProcessed(), result.filesProcessed() != 1 ? "s" : "",
+                        targetPath != null ? " to '" + targetPath + "'" : ""));
+                result.details().forEach(this::publish);
+                publish("Time: " + time + "ms");
 
-                // Send additional logs
-                if (postLogs != null) {
-                    List<String> logs = postLogs.get();
-                    if (logs != null) logs.forEach(this::publish);
+                // Where the time went, from the run report of the operation
+                RunReport report = result.report();
+                if (report != null && !report.phaseSummary().isEmpty()) {
+                    publish("Phases: " + report.phaseSummary());
+                    List<RunReport.Entry> slowest = report.slowest();
+                    if (!slowest.isEmpty())
+                        publish(String.format("Slowest entry: '%s' (%dms)", slowest.get(0).name(), slowest.get(0).nanos() / 1_000_000));
                 }
-                publish("Time: " + time + "ms");
             }
 
             return result;
         }
 
+        /**
+         * Called by the task a few times per second from a background thread.
+         */
+        @Override
+        public void progress(long bytesProcessed, long totalBytes, String currentEntry) {
+            if (totalBytes <= 0) return;
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double bytesPerSecond = seconds > 0 ? bytesProcessed / seconds : 0;
+            int percent = (int) Math.min(100, bytesProcessed * 100 / totalBytes);
+            String eta = bytesPerSecond > 0 ? Utils.formatDuration((long) ((totalBytes - bytesProcessed) / bytesPerSecond)) : "--:--";
+            String text = String.format("%d%%  %.1f MB/s  ETA %s", percent, bytesPerSecond / (1024 * 1024), eta);
+            SwingUtilities.invokeLater(() -> {
+                if (isDone() || job.cancelled()) return;
+                progressBar.setIndeterminate(false);
+                progressBar.setStringPainted(true);
+                progressBar.setString(text);
+                progressBar.setValue(percent);
+                progressBar.setToolTipText(currentEntry);
+            });
+        }
+
+        /**
+         * Polled with the progress, so the cancel button of the job stops the operation at its next buffer.
+         */
+        @Override
+        public boolean cancelled() {
+            return job.cancelled();
+        }
+
         @Override
         protected void process(List<String> chunks) {
             chunks.forEach(logger::log); // Receives each message sent by publish() and displays them in the log
@@ -128,31 +162,21 @@ public class TaskRunner {
         protected void done() {
             try {
                 Result result = get(); // Get the result of the doInBackground()
-                progressBar.setIndeterminate(false); // Disable "marquee" animation
 
                 // If compression successful
                 if (result.success()) {
-                    if (result.filesProcessed() > 0) {
-                        progressBar.setValue(100);
-                        logger.success(result.message());
-                    } else { // If no files found
-                        progressBar.setValue(0);
-                        logger.warn(result.message());
-                    }
-                } else { // If compression fails
-                    progressBar.setValue(0);
-                    logger.error(result.message());
-                }
-
-                logger.newLine();
-                onFinish.run();
+                    if (result.filesProcessed() > 0) logger.success(result.message());
+                    else logger.warn(result.message()); // If no files found
+                } else if (job.cancelled()) logger.warn(result.message());
+                else logger.error(result.message()); // If compression fails
 
+            } catch (CancellationException e) { // Cancelled while waiting in the queue
+                logger.warn(title + " cancelled before it started.");
             } catch (Exception e) {
                 logger.error("Unexpected error.\n" + e.getMessage());
-                progressBar.setValue(0);
-                progressBar.setIndeterminate(false);
+            } finally {
                 logger.newLine();
-                onFinish.run(); // Enable buttons
+                job.finished();
             }
         }
     }
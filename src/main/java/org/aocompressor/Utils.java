@@ -8,7 +8,6 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.stream.Stream;
 
 /**
  * Utility class for general functions.
@@ -26,13 +25,31 @@ public final class Utils {
         return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
     }
 
-    public static long getDirectorySize(Path directory) {
-        try (Stream<Path> paths = Files.walk(directory)) {
-            return paths.filter(Files::isRegularFile).mapToLong(Utils::getFileSize).sum();
-        } catch (Exception e) {
-            showError("Error calculating folder size.\n" + e.getMessage());
-            return 0L;
+    /** Formats a number of seconds as {@code m:ss}, or {@code h:mm:ss} from one hour up. */
+    public static String formatDuration(long seconds) {
+        if (seconds >= 3600) return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /** Quotes and escapes a string as a JSON string literal. */
+    public static String toJsonString(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
         }
+        return sb.append('"').toString();
     }
 
     public static String getFileName(Path file) {
@@ -73,12 +90,4 @@ public final class Utils {
         }
     }
 
-    private static long getFileSize(Path path) {
-        try {
-            return Files.size(path);
-        } catch (Exception e) {
-            return 0L;
-        }
-    }
-
 }
@@ -0,0 +1,435 @@
+package org.aocompressor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Low-level ZIP writer that accepts entries whose data has already been compressed elsewhere.
+ * <p>
+ * {@link java.util.zip.ZipOutputStream} insists on deflating the data itself, which makes it impossible to deflate entries on
+ * several threads and then write them in order. This writer produces standard ZIP archives (with ZIP64 records when the sizes,
+ * offsets or entry count require them) that {@link java.util.zip.ZipFile} and any other ZIP tool can read.
+ * <p>
+ * The headers and the data go through a direct buffer, and data larger than the buffer is written to the file in one call, so
+ * the number of write calls does not depend on how the data is split into entries.
+ * <p>
+ * Every read, checksum, deflate and write call is timed into the {@link RunReport} of the operation, so the phases of the
+ * entries streamed by the writer are not lumped together.
+ * <p>
+ * This class is not thread-safe; a single thread must write all the entries.
+ */
+
+final class ZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int TIMESTAMP_EXTRA_ID = 0x5455;
+    /** Empty extra field that marks an entry deflated with the {@link PresetDictionary} of the archive. */
+    static final int DICTIONARY_EXTRA_ID = 0x4F41;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    /** Smallest buffer that holds any header: the fixed fields plus a name and extra fields of up to 64 KB each. */
+    private static final int MIN_BUFFER_SIZE = 46 + 2 * 0xFFFF;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    /** Buffer for the data read by {@link #write(String, long, FileChannel, long, Deflater, LongConsumer)}, created on first use. */
+    private ByteBuffer input;
+    private final ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<Record> records = new ArrayList<>();
+    private final RunReport report;
+    private long position;
+
+    ZipWriter(Path target, int bufferSize, RunReport report) throws IOException {
+        this.report = report;
+        buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes an entry whose data is already encoded with the given method (raw deflate data for {@link ZipEntry#DEFLATED}).
+     */
+    void write(String name, long modifiedTime, int method, long crc, long size, byte[] data, int off, int len) throws IOException {
+        write(name, modifiedTime, method, crc, size, data, off, len, false);
+    }
+
+    /**
+     * Writes an entry whose data is already encoded, marking it as deflated with the preset dictionary of the archive when
+     * {@code dictionary} is true.
+     */
+    void write(String name, long modifiedTime, int method, long crc, long size, byte[] data, int off, int len, boolean dictionary) throws IOException {
+        Record record = new Record(name.getBytes(StandardCharsets.UTF_8), modifiedTime, method, position);
+        record.dictionary = dictionary;
+        record.crc = crc;
+        record.size = size;
+        record.compressedSize = len;
+        writeLocalHeader(record, false);
+        put(data, off, len);
+        records.add(record);
+    }
+
+    /**
+     * Writes an entry by reading the data from {@code in}, deflating it with {@code deflater} or storing it as is when the
+     * deflater is {@code null}. The data is read into a direct buffer and deflated straight into the output buffer, so it never
+     * goes through the heap. The CRC and sizes are patched into the local header once the data has been written.
+     *
+     * @param expectedSize size of the data, used only to decide if the local header needs room for ZIP64 sizes
+     * @param progress     receives the number of bytes read after every buffer
+     * @return the size of the data written to the archive
+     */
+    long write(String name, long modifiedTime, FileChannel in, long expectedSize, Deflater deflater, LongConsumer progress) throws IOException {
+        Record record = new Record(name.getBytes(StandardCharsets.UTF_8), modifiedTime, deflater == null ? ZipEntry.STORED : ZipEntry.DEFLATED, position);
+        boolean zip64 = expectedSize >= ZIP64_MAGIC / 2;
+        writeLocalHeader(record, zip64);
+        long dataStart = position;
+
+        if (input == null) input = ByteBuffer.allocateDirect(buffer.capacity());
+        CRC32 crc = new CRC32();
+        long size = 0, mark = System.nanoTime();
+        while (in.read(input.clear()) != -1) {
+            mark = report.add(RunReport.Phase.READ, mark);
+            input.flip();
+            int n = input.remaining();
+            crc.update(input);
+            input.flip();
+            report.add(RunReport.Phase.CHECKSUM, mark);
+            size += n;
+            if (deflater == null) put(input);
+            else {
+                deflater.setInput(input);
+                while (!deflater.needsInput()) deflate(deflater);
+            }
+            progress.accept(n);
+            mark = System.nanoTime();
+        }
+        report.add(RunReport.Phase.READ, mark);
+        // The deflater still points at the buffer, which the last read cleared
+        input.flip();
+        if (deflater != null) {
+            deflater.finish();
+            while (!deflater.finished()) deflate(deflater);
+        }
+        return finish(name, record, zip64, dataStart, crc.getValue(), size, expectedSize);
+    }
+
+    /**
+     * Writes a deflated entry whose data is deflated in blocks elsewhere, like the blocks of a {@link ChunkedDeflater}. The
+     * blocks are written as they come and the CRC and sizes are patched into the local header after the last one.
+     *
+     * @param expectedSize size of the data, used only to decide if the local header needs room for ZIP64 sizes
+     * @return the size of the data written to the archive
+     */
+    long write(String name, long modifiedTime, long expectedSize, Blocks blocks) throws IOException {
+        Record record = new Record(name.getBytes(StandardCharsets.UTF_8), modifiedTime, ZipEntry.DEFLATED, position);
+        boolean zip64 = expectedSize >= ZIP64_MAGIC / 2;
+        writeLocalHeader(record, zip64);
+        long dataStart = position;
+        for (Block block; (block = blocks.next()) != null; ) put(block.data(), 0, block.length());
+        return finish(name, record, zip64, dataStart, blocks.crc(), blocks.size(), expectedSize);
+    }
+
+    /**
+     * Patches the CRC and sizes of an entry written without them into its local header.
+     */
+    private long finish(String name, Record record, boolean zip64, long dataStart, long crc, long size, long expectedSize) throws IOException {
+        record.crc = crc;
+        record.size = size;
+        record.compressedSize = position - dataStart;
+        if (!zip64 && (record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC))
+            throw new IOException("Entry '" + name + "' grew beyond the expected size of " + expectedSize + " bytes");
+
+        flush();
+        patch.clear().putInt((int) record.crc);
+        patch.putInt(zip64 ? (int) ZIP64_MAGIC : (int) record.compressedSize);
+        patch.putInt(zip64 ? (int) ZIP64_MAGIC : (int) record.size);
+        writeFully(patch.flip(), record.offset + 14);
+        if (zip64) {
+            patch.clear().putLong(record.size).flip();
+            writeFully(patch, record.offset + 30 + record.name.length + 4);
+            patch.clear().putLong(record.compressedSize).flip();
+            writeFully(patch, record.offset + 30 + record.name.length + 12);
+        }
+
+        records.add(record);
+        return record.compressedSize;
+    }
+
+    /**
+     * Copies the raw data of an entry from another archive without inflating it, keeping its method, CRC, sizes and preset
+     * dictionary mark.
+     *
+     * @param modifiedTime modification time to record for the copied entry
+     */
+    void copy(String name, long modifiedTime, CentralDirectory.Entry entry, FileChannel source) throws IOException {
+        Record record = new Record(name.getBytes(StandardCharsets.UTF_8), modifiedTime, entry.method(), position);
+        record.dictionary = entry.dictionary();
+        record.crc = entry.crc();
+        record.size = entry.size();
+        record.compressedSize = entry.compressedSize();
+        writeLocalHeader(record, record.size >= ZIP64_MAGIC || record.compressedSize >= ZIP64_MAGIC);
+        flush();
+
+        long from = CentralDirectory.dataOffset(source, entry), remaining = entry.compressedSize(), mark = System.nanoTime();
+        while (remaining > 0) {
+            long n = source.transferTo(from, remaining, channel);
+            if (n <= 0) throw new IOException("Could not copy '" + entry.name() + "'");
+            from += n;
+            remaining -= n;
+        }
+        report.add(RunReport.Phase.WRITE, mark);
+        position += entry.compressedSize();
+        records.add(record);
+    }
+
+    /** Writes the central directory and closes the file. */
+    @Override
+    public void close() throws IOException {
+        try {
+            long centralStart = position;
+            for (Record record : records) writeCentralHeader(record);
+            long centralSize = position - centralStart;
+            writeEnd(centralStart, centralSize);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeLocalHeader(Record record, boolean zip64) throws IOException {
+        int extraLength = (zip64 ? 20 : 0) + 9 + (record.dictionary ? 4 : 0);
+        ensure(30 + record.name.length + extraLength);
+        buffer.putInt(LOCAL_HEADER_SIGNATURE);
+        buffer.putShort((short) (zip64 ? 45 : 20));
+        buffer.putShort((short) UTF8_FLAG);
+        buffer.putShort((short) record.method);
+        buffer.putInt(record.dosTime);
+        buffer.putInt((int) record.crc);
+        buffer.putInt(zip64 ? (int) ZIP64_MAGIC : (int) record.compressedSize);
+        buffer.putInt(zip64 ? (int) ZIP64_MAGIC : (int) record.size);
+        buffer.putShort((short) record.name.length);
+        buffer.putShort((short) extraLength);
+        buffer.put(record.name);
+        if (zip64) {
+            buffer.putShort((short) ZIP64_EXTRA_ID);
+            buffer.putShort((short) 16);
+            buffer.putLong(record.size);
+            buffer.putLong(record.compressedSize);
+        }
+        putTimestamp(record);
+        if (record.dictionary) putDictionaryMark();
+        position += 30 + record.name.length + extraLength;
+    }
+
+    private void writeCentralHeader(Record record) throws IOException {
+        boolean bigSize = record.size >= ZIP64_MAGIC, bigCompressed = record.compressedSize >= ZIP64_MAGIC, bigOffset = record.offset >= ZIP64_MAGIC;
+        int zip64Length = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+        int extraLength = (zip64Length > 0 ? 4 + zip64Length : 0) + 9 + (record.dictionary ? 4 : 0);
+        int version = zip64Length > 0 ? 45 : 20;
+
+        ensure(46 + record.name.length + extraLength);
+        buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+        buffer.putShort((short) version);
+        buffer.putShort((short) version);
+        buffer.putShort((short) UTF8_FLAG);
+        buffer.putShort((short) record.method);
+        buffer.putInt(record.dosTime);
+        buffer.putInt((int) record.crc);
+        buffer.putInt(bigCompressed ? (int) ZIP64_MAGIC : (int) record.compressedSize);
+        buffer.putInt(bigSize ? (int) ZIP64_MAGIC : (int) record.size);
+        buffer.putShort((short) record.name.length);
+        buffer.putShort((short) extraLength);
+        buffer.putShort((short) 0); // Comment length
+        buffer.putShort((short) 0); // Disk number
+        buffer.putShort((short) 0); // Internal attributes
+        buffer.putInt(0); // External attributes
+        buffer.putInt(bigOffset ? (int) ZIP64_MAGIC : (int) record.offset);
+        buffer.put(record.name);
+        if (zip64Length > 0) {
+            buffer.putShort((short) ZIP64_EXTRA_ID);
+            buffer.putShort((short) zip64Length);
+            if (bigSize) buffer.putLong(record.size);
+            if (bigCompressed) buffer.putLong(record.compressedSize);
+            if (bigOffset) buffer.putLong(record.offset);
+        }
+        putTimestamp(record);
+        if (record.dictionary) putDictionaryMark();
+        position += 46 + record.name.length + extraLength;
+    }
+
+    private void writeEnd(long centralStart, long centralSize) throws IOException {
+        int count = records.size();
+        boolean zip64 = count >= 0xFFFF || centralStart >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+        ensure(56 + 20 + 22);
+        if (zip64) {
+            long zip64EndStart = position;
+            buffer.putInt(ZIP64_END_SIGNATURE);
+            buffer.putLong(44); // Size of the remaining record
+            buffer.putShort((short) 45);
+            buffer.putShort((short) 45);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putLong(count);
+            buffer.putLong(count);
+            buffer.putLong(centralSize);
+            buffer.putLong(centralStart);
+            buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+            buffer.putInt(0);
+            buffer.putLong(zip64EndStart);
+            buffer.putInt(1);
+            position += 56 + 20;
+        }
+        buffer.putInt(END_SIGNATURE);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) Math.min(count, 0xFFFF));
+        buffer.putShort((short) Math.min(count, 0xFFFF));
+        buffer.putInt(zip64 ? (int) ZIP64_MAGIC : (int) centralSize);
+        buffer.putInt(zip64 ? (int) ZIP64_MAGIC : (int) centralStart);
+        buffer.putShort((short) 0); // Comment length
+        position += 22;
+    }
+
+    /**
+     * Extended timestamp with the modification time in seconds, which unlike the DOS time is exact and time zone independent.
+     */
+    private void putTimestamp(Record record) {
+        buffer.putShort((short) TIMESTAMP_EXTRA_ID);
+        buffer.putShort((short) 5);
+        buffer.put((byte) 1);
+        buffer.putInt((int) (record.modifiedTime / 1000));
+    }
+
+    private void putDictionaryMark() {
+        buffer.putShort((short) DICTIONARY_EXTRA_ID);
+        buffer.putShort((short) 0);
+    }
+
+    private void put(byte[] data, int off, int len) throws IOException {
+        position += len;
+        if (len >= buffer.capacity()) {
+            // Large enough to skip the buffer and save the copy
+            flush();
+            ByteBuffer src = ByteBuffer.wrap(data, off, len);
+            long mark = System.nanoTime();
+            while (src.hasRemaining()) channel.write(src);
+            report.add(RunReport.Phase.WRITE, mark);
+            return;
+        }
+        while (len > 0) {
+            if (!buffer.hasRemaining()) flush();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(data, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void put(ByteBuffer src) throws IOException {
+        position += src.remaining();
+        int limit = src.limit();
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) flush();
+            src.limit(src.position() + Math.min(src.remaining(), buffer.remaining()));
+            buffer.put(src);
+            src.limit(limit);
+        }
+    }
+
+    /** Deflates the pending input of {@code deflater} into the free space of the buffer. */
+    private void deflate(Deflater deflater) throws IOException {
+        if (!buffer.hasRemaining()) flush();
+        int start = buffer.position();
+        long mark = System.nanoTime();
+        deflater.deflate(buffer);
+        report.add(RunReport.Phase.DEFLATE, mark);
+        position += buffer.position() - start;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        long mark = System.nanoTime();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        report.add(RunReport.Phase.WRITE, mark);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src, long at) throws IOException {
+        long mark = System.nanoTime();
+        while (src.hasRemaining()) at += channel.write(src, at);
+        report.add(RunReport.Phase.WRITE, mark);
+    }
+
+    private static int toDosTime(long time) {
+        LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (ldt.getYear() < 1980) return (1 << 21) | (1 << 16);
+        return (ldt.getYear() - 1980) << 25 | ldt.getMonthValue() << 21 | ldt.getDayOfMonth() << 16
+                | ldt.getHour() << 11 | ldt.getMinute() << 5 | ldt.getSecond() >> 1;
+    }
+
+    /**
+     * Raw deflate data of an entry that arrives in blocks.
+     */
+    interface Blocks {
+
+        /**
+         * Returns the next block, or {@code null} after the last one. The data of a block is only read until the next call.
+         */
+        Block next() throws IOException;
+
+        /** Returns the CRC of the uncompressed data, once every block was returned. */
+        long crc();
+
+        /** Returns the size of the uncompressed data, once every block was returned. */
+        long size();
+
+    }
+
+    /**
+     * @param data   deflated data, from offset 0
+     * @param length bytes of deflated data
+     */
+    record Block(byte[] data, int length) {
+    }
+
+    private static final class Record {
+        final byte[] name;
+        final long modifiedTime;
+        final int dosTime;
+        final int method;
+        final long offset;
+        long crc, size, compressedSize;
+        boolean dictionary;
+
+        Record(byte[] name, long modifiedTime, int method, long offset) {
+            this.name = name;
+            this.modifiedTime = modifiedTime;
+            this.dosTime = toDosTime(modifiedTime);
+            this.method = method;
+            this.offset = offset;
+        }
+    }
+
+}
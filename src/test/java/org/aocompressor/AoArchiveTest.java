@@ -0,0 +1,86 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static org.aocompressor.ZipWriterTest.crc;
+import static org.aocompressor.ZipWriterTest.deflate;
+import static org.aocompressor.ZipWriterTest.randomBytes;
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.aocompressor.ZipWriterTest.report;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AoArchiveTest {
+
+    private static final long TIME = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsEntriesAliasesAndDictionaryEntriesByName() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        byte[] map = randomText(300_000), ini = randomText(2_000), media = randomBytes(50_000, 3);
+        Files.write(source.resolve("Mapa1.map"), map);
+        Files.write(source.resolve("Mapa2.map"), map);
+        Files.write(source.resolve("Hechizos.ini"), ini);
+        Files.write(source.resolve("1.ogg"), media);
+        Path archive = dir.resolve("test.ao");
+        assertTrue(new Compressor().deduplicate(true).presetDictionary(true).profile(CompressionProfile.RESOURCES)
+                .compress(source.toFile(), archive.toString()).success());
+
+        AccessTrace trace = new AccessTrace();
+        try (AoArchive ao = AoArchive.open(archive).trace(trace)) {
+            assertTrue(ao.contains("Mapa2.map"));
+            assertFalse(ao.contains("Mapa3.map"));
+            assertEquals(map.length, ao.size("Mapa2.map"));
+            assertArrayEquals(map, bytes(ao.read("Mapa2.map")));
+            assertArrayEquals(ini, bytes(ao.read("Hechizos.ini")));
+            assertArrayEquals(media, bytes(ao.read("1.ogg")));
+            try (InputStream in = ao.newInputStream("Mapa1.map")) {
+                assertArrayEquals(map, in.readAllBytes());
+            }
+            assertArrayEquals(bytes(ao.read("Mapa2.map")), bytes(ao.read("Mapa1.map")));
+        }
+        assertEquals(List.of("Mapa2.map", "Hechizos.ini", "1.ogg", "Mapa1.map"), trace.names());
+    }
+
+    @Test
+    void rejectsMissingAndCorruptEntries() throws IOException {
+        byte[] data = randomText(20_000), deflated = deflate(data);
+        Path archive = dir.resolve("test.ao");
+        try (var writer = new ZipWriter(archive, 4096, report())) {
+            writer.write("bad.txt", TIME, ZipEntry.DEFLATED, crc(data) ^ 1, data.length, deflated, 0, deflated.length);
+            writer.write("short.txt", TIME, ZipEntry.DEFLATED, crc(data), data.length, deflated, 0, deflated.length / 2);
+        }
+
+        try (AoArchive ao = AoArchive.open(archive)) {
+            assertThrows(NoSuchFileException.class, () -> ao.read("missing.txt"));
+            assertThrows(ZipException.class, () -> ao.read("bad.txt"));
+            assertThrows(ZipException.class, () -> ao.read("short.txt"));
+        }
+        Path notAnArchive = Files.write(dir.resolve("garbage.ao"), randomBytes(10_000, 4));
+        assertThrows(ZipException.class, () -> AoArchive.open(notAnArchive));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.aocompressor.ZipWriterTest.randomBytes;
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.aocompressor.ZipWriterTest.report;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChunkedDeflaterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void combinesCrcsLikeTheCrcOfTheWholeData() {
+        byte[] data = randomBytes(100_000, 7);
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            int split = i < 2 ? i * data.length : random.nextInt(data.length + 1);
+            long first = crc(data, 0, split), second = crc(data, split, data.length - split);
+            assertEquals(crc(data, 0, data.length), ChunkedDeflater.combine(first, second, data.length - split), "split at " + split);
+        }
+    }
+
+    @Test
+    void combinesCrcsOfSecondPiecesLongerThan4Gb() {
+        // The CRC of n zero bytes starting from the CRC of the first piece, computed one block of zeros at a time
+        byte[] zeros = new byte[1 << 20];
+        long blocks = 4097, first = crc("Graficos".getBytes(), 0, 8);
+        CRC32 whole = new CRC32();
+        whole.update("Graficos".getBytes());
+        long zerosCrc = 0;
+        for (long i = 0; i < blocks; i++) {
+            whole.update(zeros);
+            zerosCrc = ChunkedDeflater.combine(zerosCrc, crc(zeros, 0, zeros.length), zeros.length);
+        }
+        assertEquals(whole.getValue(), ChunkedDeflater.combine(first, zerosCrc, blocks * zeros.length));
+    }
+
+    @Test
+    void writesBlocksAsASingleDeflateStream() throws IOException {
+        // Three and a half blocks, with text repeated across the block boundaries
+        byte[] data = randomText(ChunkedDeflater.BLOCK_SIZE * 3 + ChunkedDeflater.BLOCK_SIZE / 2);
+        Path source = Files.write(dir.resolve("Graficos1.ind"), data);
+        Path archive = dir.resolve("test.ao");
+        RunReport report = report();
+        BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        AtomicLong progress = new AtomicLong();
+        try (var writer = new ZipWriter(archive, BufferPool.DEFAULT_BUFFER_SIZE, report);
+             var in = FileChannel.open(source, StandardOpenOption.READ);
+             var blocks = new ChunkedDeflater(in, data.length, CompressionProfile.Codec.DEFAULT, pool, 4, buffers, report, progress::addAndGet)) {
+            writer.write("Graficos1.ind", 0, data.length, blocks);
+            assertEquals(crc(data, 0, data.length), blocks.crc());
+            assertEquals(data.length, blocks.size());
+        } finally {
+            pool.shutdownNow();
+            buffers.close();
+        }
+        assertEquals(data.length, progress.get());
+
+        try (var zip = new ZipFile(archive.toFile())) {
+            ZipEntry entry = zip.getEntry("Graficos1.ind");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals(crc(data, 0, data.length), entry.getCrc());
+            try (InputStream inflated = zip.getInputStream(entry)) {
+                assertArrayEquals(data, inflated.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void producesTheSameOutputForAnyNumberOfThreads() throws IOException {
+        byte[] data = randomText(ChunkedDeflater.BLOCK_SIZE * 2 + 12345);
+        Path source = Files.write(dir.resolve("Mapas.dat"), data);
+        byte[] single = deflateInBlocks(source, data.length, 1), parallel = deflateInBlocks(source, data.length, 4);
+        assertArrayEquals(single, parallel);
+    }
+
+    private byte[] deflateInBlocks(Path source, long length, int threads) throws IOException {
+        Path archive = dir.resolve("test-" + threads + ".ao");
+        RunReport report = report();
+        BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (var writer = new ZipWriter(archive, BufferPool.DEFAULT_BUFFER_SIZE, report);
+             var in = FileChannel.open(source, StandardOpenOption.READ);
+             var blocks = new ChunkedDeflater(in, length, CompressionProfile.Codec.DEFAULT, pool, threads * 2, buffers, report, n -> {
+             })) {
+            writer.write("data", 0, length, blocks);
+        } finally {
+            pool.shutdownNow();
+            buffers.close();
+        }
+        return Files.readAllBytes(archive);
+    }
+
+    private static long crc(byte[] data, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return crc.getValue();
+    }
+
+}
@@ -0,0 +1,87 @@
+package org.aocompressor;
+
+import org.aocompressor.CompressionProfile.Codec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.aocompressor.ZipWriterTest.randomBytes;
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CodecSelectorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void decidesFromTheFastRatioAndTheEntropy() {
+        assertEquals(Codec.STORED, CodecSelector.decide(0.99, 1.0));
+        assertEquals(Codec.HUFFMAN_ONLY, CodecSelector.decide(0.60, 0.61));
+        assertEquals(Codec.FILTERED, CodecSelector.decide(0.60, 0.66));
+        assertEquals(Codec.BEST_COMPRESSION, CodecSelector.decide(0.20, 0.60));
+        assertEquals(Codec.DEFAULT, CodecSelector.decide(0.50, 0.70));
+        assertEquals(Codec.BEST_SPEED, CodecSelector.decide(0.80, 0.99));
+    }
+
+    @Test
+    void samplesFilesWithoutMovingTheChannel() throws IOException {
+        byte[] large = randomText(1_000_000);
+        // A header of noise must not decide the codec of a file that is mostly text
+        System.arraycopy(randomBytes(CodecSelector.SAMPLE_SIZE / CodecSelector.SLICES, 1), 0, large, 0, CodecSelector.SAMPLE_SIZE / CodecSelector.SLICES);
+        Path text = Files.write(dir.resolve("Mapa1.map"), large);
+        Path noise = Files.write(dir.resolve("1.bin"), randomBytes(30_000, 2));
+        Path empty = Files.write(dir.resolve("empty.dat"), new byte[0]);
+
+        BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE);
+        try (var channel = FileChannel.open(text, StandardOpenOption.READ)) {
+            channel.position(1234);
+            CodecSelector.Choice choice = CodecSelector.choose(channel, buffers);
+            assertTrue(choice.codec() != Codec.STORED && choice.codec() != Codec.HUFFMAN_ONLY, choice.describe("Mapa1.map"));
+            assertEquals(CodecSelector.SAMPLE_SIZE, choice.sampleBytes());
+            assertEquals(1234, channel.position());
+        }
+        try (var channel = FileChannel.open(noise, StandardOpenOption.READ)) {
+            CodecSelector.Choice choice = CodecSelector.choose(channel, buffers);
+            assertEquals(Codec.STORED, choice.codec());
+            assertEquals(30_000, choice.sampleBytes());
+        }
+        try (var channel = FileChannel.open(empty, StandardOpenOption.READ)) {
+            assertEquals(Codec.STORED, CodecSelector.choose(channel, buffers).codec());
+        }
+        FileChannel closed = FileChannel.open(text, StandardOpenOption.READ);
+        closed.close();
+        assertThrows(ClosedChannelException.class, () -> CodecSelector.choose(closed, buffers));
+        buffers.close();
+    }
+
+    @Test
+    void autoProfileStoresNoiseAndDeflatesText() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        byte[] noise = randomBytes(200_000, 3), text = randomText(200_000);
+        Files.write(source.resolve("sonido.xyz"), noise);
+        Files.write(source.resolve("Mapa1.xyz"), text);
+        Path archive = dir.resolve("test.ao");
+        Compressor.Result result = new Compressor().profile(CompressionProfile.AUTO).compress(source.toFile(), archive.toString());
+        assertTrue(result.success(), result.message());
+
+        try (var zip = new ZipFile(archive.toFile())) {
+            assertEquals(ZipEntry.STORED, zip.getEntry("sonido.xyz").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("Mapa1.xyz").getMethod());
+            assertArrayEquals(noise, zip.getInputStream(zip.getEntry("sonido.xyz")).readAllBytes());
+            assertArrayEquals(text, zip.getInputStream(zip.getEntry("Mapa1.xyz")).readAllBytes());
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.aocompressor.ZipWriterTest.crc;
+import static org.aocompressor.ZipWriterTest.deflate;
+import static org.aocompressor.ZipWriterTest.randomBytes;
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.aocompressor.ZipWriterTest.report;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressorTest {
+
+    private static final long TIME = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void extractsStoredAndDeflatedEntries() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        byte[] media = randomBytes(300_000, 1), text = randomText(200_000);
+        Files.write(Files.createDirectories(source.resolve("sonidos")).resolve("1.ogg"), media);
+        Files.write(source.resolve("Mapa1.map"), text);
+        Path archive = dir.resolve("test.ao");
+
+        Compressor compressor = new Compressor().threads(2).profile(CompressionProfile.RESOURCES);
+        assertTrue(compressor.compress(source.toFile(), archive.toString()).success());
+        Compressor.Result result = compressor.decompress(archive.toString(), dir.toString(), message -> {
+        });
+
+        assertTrue(result.success(), result.message());
+        assertEquals(2, result.filesProcessed());
+        Path extracted = dir.resolve("test-decompressed");
+        assertArrayEquals(media, Files.readAllBytes(extracted.resolve("sonidos/1.ogg")));
+        assertArrayEquals(text, Files.readAllBytes(extracted.resolve("Mapa1.map")));
+    }
+
+    @Test
+    void failsAndDeletesEntriesWithTheWrongCrc() throws IOException {
+        byte[] good = randomText(40_000), bad = randomText(50_000);
+        byte[] goodDeflated = deflate(good), badDeflated = deflate(bad);
+        Path archive = dir.resolve("test.ao");
+        try (var writer = new ZipWriter(archive, 4096, report())) {
+            writer.write("good.txt", TIME, ZipEntry.DEFLATED, crc(good), good.length, goodDeflated, 0, goodDeflated.length);
+            writer.write("bad.txt", TIME, ZipEntry.DEFLATED, crc(bad) ^ 1, bad.length, badDeflated, 0, badDeflated.length);
+        }
+
+        List<String> log = new ArrayList<>();
+        Compressor.Result result = new Compressor().threads(1).decompress(archive.toString(), dir.toString(), log::add);
+
+        assertFalse(result.success());
+        assertTrue(result.message().contains("1 of 2 entries are corrupt"), result.message());
+        assertTrue(log.stream().anyMatch(line -> line.startsWith("Entry 'bad.txt' has CRC")), log.toString());
+        Path extracted = dir.resolve("test-decompressed");
+        assertFalse(Files.exists(extracted.resolve("bad.txt")));
+        assertArrayEquals(good, Files.readAllBytes(extracted.resolve("good.txt")));
+    }
+
+    @Test
+    void failsOnStoredEntriesWhoseSizesDisagree() throws IOException {
+        byte[] data = "Mapa1.inf".repeat(100).getBytes(StandardCharsets.US_ASCII);
+        Path archive = dir.resolve("test.ao");
+        try (var writer = new ZipWriter(archive, 4096, report())) {
+            // Declared one byte longer than the data stored
+            writer.write("Mapa1.inf", TIME, ZipEntry.STORED, crc(data), data.length + 1, data, 0, data.length);
+        }
+
+        List<String> log = new ArrayList<>();
+        Compressor.Result result = new Compressor().threads(1).decompress(archive.toString(), dir.toString(), log::add);
+
+        assertFalse(result.success());
+        assertTrue(log.stream().anyMatch(line -> line.startsWith("Entry 'Mapa1.inf' is stored with")), log.toString());
+        assertFalse(Files.exists(dir.resolve("test-decompressed/Mapa1.inf")));
+    }
+
+    @Test
+    void updateCopiesUnchangedEntriesAndRecompressesTheRest() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        write(source, "init/Hechizos.dat", randomText(30_000));
+        write(source, "init/Obj.dat", randomText(40_000));
+        write(source, "init/Viejo.dat", randomText(10_000));
+        Path archive = dir.resolve("test.ao");
+        Compressor compressor = new Compressor().threads(2);
+        assertTrue(compressor.compress(source.toFile(), archive.toString()).success());
+        CentralDirectory.Entry before = entry(archive, "init/Hechizos.dat");
+
+        write(source, "init/Obj.dat", randomText(45_000));
+        Files.delete(source.resolve("init/Viejo.dat"));
+        write(source, "init/Nuevo.dat", randomText(5_000));
+        Compressor.Result result = compressor.update(source.toFile(), archive.toString());
+
+        assertTrue(result.success(), result.message());
+        assertTrue(result.message().contains("(1 unchanged, 1 modified, 1 added, 1 removed)"), result.message());
+        CentralDirectory.Entry after = entry(archive, "init/Hechizos.dat");
+        assertEquals(before.crc(), after.crc());
+        assertEquals(before.compressedSize(), after.compressedSize());
+        assertEquals(read(source), read(archive));
+        assertFalse(Files.exists(dir.resolve("test.ao.tmp")));
+    }
+
+    @Test
+    void updateFailsOnACorruptArchiveAndLeavesItAlone() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        write(source, "Mapa1.map", randomText(10_000));
+        Path archive = Files.write(dir.resolve("test.ao"), randomBytes(5_000, 2));
+
+        Compressor.Result result = new Compressor().update(source.toFile(), archive.toString());
+
+        assertFalse(result.success());
+        assertTrue(result.message().startsWith("Update failed!"), result.message());
+        assertArrayEquals(randomBytes(5_000, 2), Files.readAllBytes(archive));
+        assertFalse(Files.exists(dir.resolve("test.ao.tmp")));
+    }
+
+    @Test
+    void storesDuplicatesOnceAndRestoresThemAsCopies() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        byte[] body = randomText(60_000);
+        write(source, "graficos/1.bmp", body);
+        write(source, "graficos/copia/1.bmp", body);
+        write(source, "graficos/2.bmp", body);
+        write(source, "graficos/3.bmp", randomText(30_000));
+        Path archive = dir.resolve("test.ao");
+        Compressor.Result compressed = new Compressor().deduplicate(true).compress(source.toFile(), archive.toString());
+        assertTrue(compressed.success(), compressed.message());
+
+        try (var zip = new ZipFile(archive.toFile())) {
+            assertEquals(List.of("graficos/1.bmp", "graficos/3.bmp", AliasManifest.NAME), zip.stream().map(ZipEntry::getName).toList());
+            assertEquals(Map.of("graficos/2.bmp", "graficos/1.bmp", "graficos/copia/1.bmp", "graficos/1.bmp"),
+                    AliasManifest.parse(zip.getInputStream(zip.getEntry(AliasManifest.NAME)).readAllBytes()));
+        }
+        Compressor.Result result = new Compressor().decompress(archive.toString(), dir.toString(), message -> {
+        });
+        assertTrue(result.success(), result.message());
+        assertEquals(4, result.filesProcessed());
+        assertEquals(read(source), read(dir.resolve("test-decompressed")));
+    }
+
+    @Test
+    void skipsAliasesOutsideTheTargetFolderOrOfMissingEntries() throws IOException {
+        byte[] data = randomText(10_000), deflated = deflate(data);
+        byte[] manifest = AliasManifest.format(Map.of("../evil.bmp", "1.bmp", "2.bmp", "missing.bmp", "3.bmp", "1.bmp"));
+        Path archive = dir.resolve("test.ao");
+        try (var writer = new ZipWriter(archive, 4096, report())) {
+            writer.write("1.bmp", TIME, ZipEntry.DEFLATED, crc(data), data.length, deflated, 0, deflated.length);
+            writer.write(AliasManifest.NAME, TIME, ZipEntry.STORED, crc(manifest), manifest.length, manifest, 0, manifest.length);
+        }
+
+        List<String> log = new ArrayList<>();
+        Compressor.Result result = new Compressor().decompress(archive.toString(), dir.toString(), log::add);
+
+        assertTrue(result.success(), result.message());
+        assertEquals(2, result.filesProcessed());
+        assertTrue(log.contains("Skipping alias outside target directory: ../evil.bmp"), log.toString());
+        assertTrue(log.contains("Skipping alias of a missing file: 2.bmp"), log.toString());
+        assertFalse(Files.exists(dir.resolve("evil.bmp")));
+        assertArrayEquals(data, Files.readAllBytes(dir.resolve("test-decompressed/3.bmp")));
+    }
+
+    @Test
+    void patchRebuildsTheNewArchiveFromTheOldOne() throws IOException {
+        Path v1 = Files.createDirectories(dir.resolve("v1")), v2 = Files.createDirectories(dir.resolve("v2"));
+        byte[] same = randomText(30_000), moved = randomText(40_000);
+        write(v1, "init/Obj.dat", same);
+        write(v1, "init/Hechizos.dat", randomText(20_000));
+        write(v1, "mapas/Mapa1.map", moved);
+        write(v2, "init/Obj.dat", same);
+        write(v2, "init/Hechizos.dat", randomText(21_000));
+        write(v2, "mapas/viejos/Mapa1.map", moved);
+        write(v2, "mapas/Mapa2.map", randomText(50_000));
+        Path old = dir.resolve("v1.ao"), current = dir.resolve("v2.ao"), patch = dir.resolve("v2.patch.ao");
+        Compressor compressor = new Compressor();
+        assertTrue(compressor.compress(v1.toFile(), old.toString()).success());
+        assertTrue(compressor.compress(v2.toFile(), current.toString()).success());
+
+        Compressor.Result diff = compressor.diff(old.toString(), current.toString(), patch.toString());
+        assertTrue(diff.success(), diff.message());
+        assertTrue(diff.message().contains("(2 unchanged, 2 added or modified, 1 removed)"), diff.message());
+        assertTrue(Files.size(patch) < Files.size(current));
+
+        Compressor.Result patched = compressor.patch(old.toString(), patch.toString(), old.toString());
+        assertTrue(patched.success(), patched.message());
+        assertTrue(patched.message().contains("(2 entries copied from the archive, 2 from the patch)"), patched.message());
+        assertArrayEquals(Files.readAllBytes(current), Files.readAllBytes(old));
+        assertEquals(read(v2), read(old));
+    }
+
+    @Test
+    void patchFailsOnTheWrongArchiveAndWritesNothing() throws IOException {
+        Path v1 = Files.createDirectories(dir.resolve("v1")), v2 = Files.createDirectories(dir.resolve("v2"));
+        write(v1, "init/Obj.dat", randomText(30_000));
+        write(v2, "init/Obj.dat", randomText(30_000));
+        write(v2, "init/Nuevo.dat", randomText(10_000));
+        Path old = dir.resolve("v1.ao"), current = dir.resolve("v2.ao"), patch = dir.resolve("v2.patch.ao"), target = dir.resolve("out.ao");
+        Compressor compressor = new Compressor();
+        assertTrue(compressor.compress(v1.toFile(), old.toString()).success());
+        assertTrue(compressor.compress(v2.toFile(), current.toString()).success());
+        assertTrue(compressor.diff(old.toString(), current.toString(), patch.toString()).success());
+
+        write(v1, "init/Obj.dat", randomText(31_000));
+        assertTrue(compressor.compress(v1.toFile(), old.toString()).success());
+        Compressor.Result wrongBase = compressor.patch(old.toString(), patch.toString(), target.toString());
+        assertFalse(wrongBase.success());
+        assertTrue(wrongBase.message().contains("does not match the patch: 'init/Obj.dat' is different"), wrongBase.message());
+
+        Compressor.Result notAPatch = compressor.patch(old.toString(), current.toString(), target.toString());
+        assertFalse(notAPatch.success());
+        assertTrue(notAPatch.message().contains("is not a patch"), notAPatch.message());
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(dir.resolve("out.ao.tmp")));
+    }
+
+    @Test
+    void cancelDeletesTheArchiveBeingWritten() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        for (int i = 1; i <= 20; i++) write(source, "init/" + i + ".dat", randomText(20_000 + i));
+        Path archive = dir.resolve("test.ao");
+
+        Compressor.Result scanning = new Compressor().compress(source.toFile(), archive.toString(), new Canceller());
+        assertFalse(scanning.success());
+        assertEquals("Compression cancelled.", scanning.message());
+        assertFalse(Files.exists(archive));
+
+        // Auto logs the codec of every file from the writer, which holds there until the cancel reaches the operation
+        Canceller writing = new Canceller();
+        Compressor compressor = new Compressor().threads(2).profile(CompressionProfile.AUTO).logger(message -> writing.await());
+        Compressor.Result result = compressor.compress(compressor.scan(source.toFile()), archive.toString(), writing);
+        assertFalse(result.success());
+        assertEquals("Compression cancelled.", result.message());
+        assertFalse(Files.exists(archive));
+    }
+
+    @Test
+    void cancelLeavesTheUpdatedArchiveAlone() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        for (int i = 1; i <= 20; i++) write(source, "init/" + i + ".dat", randomText(20_000 + i));
+        Path archive = dir.resolve("test.ao");
+        assertTrue(new Compressor().compress(source.toFile(), archive.toString()).success());
+        byte[] original = Files.readAllBytes(archive);
+
+        write(source, "init/1.dat", randomText(30_000));
+        Canceller canceller = new Canceller();
+        Compressor compressor = new Compressor().profile(CompressionProfile.AUTO).logger(message -> canceller.await());
+        Compressor.Result result = compressor.update(compressor.scan(source.toFile()), archive.toString(), canceller);
+
+        assertFalse(result.success());
+        assertEquals("Update cancelled.", result.message());
+        assertArrayEquals(original, Files.readAllBytes(archive));
+        assertFalse(Files.exists(dir.resolve("test.ao.tmp")));
+    }
+
+    @Test
+    void cancelDeletesTheExtractedFolder() throws IOException {
+        Path archive = dir.resolve("test.ao");
+        try (var writer = new ZipWriter(archive, 4096, report())) {
+            for (String name : List.of("../escape.txt", "init/Obj.dat", "mapas/Mapa1.map")) {
+                byte[] data = randomText(30_000), deflated = deflate(data);
+                writer.write(name, TIME, ZipEntry.DEFLATED, crc(data), data.length, deflated, 0, deflated.length);
+            }
+        }
+
+        // The entry outside the target folder is logged before the extraction starts, which holds there until the cancel
+        Canceller canceller = new Canceller();
+        Compressor.Result result = new Compressor().decompress(archive.toString(), dir.toString(), message -> canceller.await(), canceller);
+
+        assertFalse(result.success());
+        assertEquals("Decompression cancelled.", result.message());
+        assertFalse(Files.exists(dir.resolve("test-decompressed")));
+        assertFalse(Files.exists(dir.resolve("escape.txt")));
+    }
+
+    private static void write(Path root, String name, byte[] data) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, data);
+    }
+
+    private static CentralDirectory.Entry entry(Path archive, String name) throws IOException {
+        try (var channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            for (CentralDirectory.Entry entry : CentralDirectory.read(channel))
+                if (entry.name().equals(name)) return entry;
+        }
+        throw new AssertionError("No entry '" + name + "'");
+    }
+
+    /** Returns the text of every file under a folder, or of every entry of an archive, by name. */
+    private static Map<String, String> read(Path path) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        if (Files.isDirectory(path)) {
+            try (var walk = Files.walk(path)) {
+                for (Path file : walk.filter(Files::isRegularFile).toList())
+                    files.put(path.relativize(file).toString().replace('\\', '/'), Files.readString(file, StandardCharsets.ISO_8859_1));
+            }
+            return files;
+        }
+        try (var zip = new ZipFile(path.toFile())) {
+            for (ZipEntry entry : zip.stream().toList())
+                if (!entry.isDirectory() && !entry.getName().startsWith(".ao-"))
+                    files.put(entry.getName(), new String(zip.getInputStream(entry).readAllBytes(), StandardCharsets.ISO_8859_1));
+        }
+        return files;
+    }
+
+    /** Asks every operation to stop, and lets a thread wait until the cancel has reached the operation. */
+    private static final class Canceller implements ProgressListener {
+
+        private final CountDownLatch reported = new CountDownLatch(1);
+
+        @Override
+        public void progress(long bytesProcessed, long totalBytes, String currentEntry) {
+            // Called right after the operation saw cancelled() return true
+            reported.countDown();
+        }
+
+        @Override
+        public boolean cancelled() {
+            return true;
+        }
+
+        void await() {
+            try {
+                assertTrue(reported.await(10, TimeUnit.SECONDS), "The cancel never reached the operation");
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+
+import static org.aocompressor.ZipWriterTest.crc;
+import static org.aocompressor.ZipWriterTest.deflate;
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.aocompressor.ZipWriterTest.report;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntryCacheTest {
+
+    private static final long TIME = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntriesByBytes() throws IOException {
+        Path archive = write("a.bmp", "b.bmp", "c.bmp", "big.bmp");
+        try (AoArchive ao = AoArchive.open(archive)) {
+            EntryCache cache = new EntryCache(ao, 25_000, true);
+            cache.get("a.bmp");
+            cache.get("b.bmp");
+            cache.get("a.bmp");
+            ByteBuffer c = cache.get("c.bmp");
+
+            EntryCache.Stats stats = cache.stats();
+            assertEquals(1, stats.hits());
+            assertEquals(3, stats.loads());
+            assertEquals(1, stats.evictions());
+            assertEquals(2, stats.entries());
+            assertEquals(20_000, stats.residentBytes());
+            assertTrue(c.isReadOnly() && c.isDirect());
+            assertArrayEquals(data("c.bmp"), bytes(c));
+
+            // b was the least recently used, so it is read again while a is still cached
+            cache.get("b.bmp");
+            cache.get("c.bmp");
+            assertEquals(4, cache.stats().loads());
+            cache.get("big.bmp");
+            assertEquals(5, cache.stats().loads());
+            assertEquals(20_000, cache.stats().residentBytes());
+        }
+    }
+
+    @Test
+    void loadsAnEntryOnceForConcurrentReaders() throws Exception {
+        Path archive = write("Mapa1.map");
+        int readers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(readers);
+        try (AoArchive ao = AoArchive.open(archive)) {
+            EntryCache cache = new EntryCache(ao, 100_000_000, false);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<ByteBuffer>> reads = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                reads.add(pool.submit(() -> {
+                    start.await();
+                    return cache.get("Mapa1.map");
+                }));
+            }
+            start.countDown();
+            for (Future<ByteBuffer> read : reads) assertArrayEquals(data("Mapa1.map"), bytes(read.get()));
+
+            EntryCache.Stats stats = cache.stats();
+            assertEquals(1, stats.loads());
+            assertEquals(readers, stats.hits() + stats.misses());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsMissingEntriesWithoutCachingThem() throws IOException {
+        Path archive = write("a.bmp");
+        try (AoArchive ao = AoArchive.open(archive)) {
+            EntryCache cache = new EntryCache(ao, 25_000, false);
+            assertThrows(NoSuchFileException.class, () -> cache.get("missing.bmp"));
+            assertThrows(NoSuchFileException.class, () -> cache.get("missing.bmp"));
+            assertEquals(0, cache.stats().entries());
+            assertEquals(0, cache.stats().loads());
+            assertThrows(IllegalArgumentException.class, () -> new EntryCache(ao, -1, false));
+        }
+    }
+
+    /** Writes an archive with the given entries, of 10000 bytes each except {@code big.bmp} and {@code Mapa1.map}. */
+    private Path write(String... names) throws IOException {
+        Path archive = dir.resolve("test.ao");
+        try (var writer = new ZipWriter(archive, 4096, report())) {
+            for (String name : names) {
+                byte[] data = data(name), deflated = deflate(data);
+                writer.write(name, TIME, ZipEntry.DEFLATED, crc(data), data.length, deflated, 0, deflated.length);
+            }
+        }
+        return archive;
+    }
+
+    private static byte[] data(String name) {
+        int length = switch (name) {
+            case "big.bmp" -> 30_000;
+            case "Mapa1.map" -> 20_000_000;
+            default -> 10_000;
+        };
+        byte[] data = randomText(length);
+        data[0] = (byte) name.charAt(0);
+        return data;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntryOrderTest {
+
+    /** Sorted by path, like a manifest. */
+    private static final List<String> NAMES = List.of("Leeme.txt", "graficos-old/1.bmp", "graficos/10.bmp", "graficos/2.bmp",
+            "graficos/body/1.bmp", "mapas/Mapa1.inf", "mapas/Mapa1.map", "mapas/Mapa10.map", "mapas/Mapa2.map");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsFoldersTogetherAndSortsResourcesByNumber() {
+        assertEquals(NAMES, sort(EntryOrder.PATH, NAMES));
+        assertEquals(List.of("Leeme.txt", "graficos/10.bmp", "graficos/2.bmp", "graficos/body/1.bmp", "graficos-old/1.bmp",
+                "mapas/Mapa1.inf", "mapas/Mapa1.map", "mapas/Mapa10.map", "mapas/Mapa2.map"), sort(EntryOrder.FOLDER, NAMES));
+        assertEquals(List.of("Leeme.txt", "graficos/2.bmp", "graficos/10.bmp", "graficos/body/1.bmp", "graficos-old/1.bmp",
+                "mapas/Mapa1.inf", "mapas/Mapa1.map", "mapas/Mapa2.map", "mapas/Mapa10.map"), sort(EntryOrder.ID, NAMES));
+        // Numbers longer than a long still compare by their digits
+        assertEquals(List.of("a/7.bmp", "a/0099999999999999999999.bmp", "a/100000000000000000000.bmp", "a/sin-numero.bmp"),
+                sort(EntryOrder.ID, List.of("a/0099999999999999999999.bmp", "a/100000000000000000000.bmp", "a/7.bmp", "a/sin-numero.bmp")));
+    }
+
+    @Test
+    void putsTracedFilesFirstInTheOrderTheyWereRead() {
+        EntryOrder trace = EntryOrder.trace("Trace", List.of("MAPAS\\Mapa2.map", "graficos/10.bmp", "mapas/mapa2.map", "sonidos/1.wav"));
+        assertTrue(trace.isTrace());
+        assertFalse(EntryOrder.ID.isTrace());
+        assertEquals(List.of("mapas/Mapa2.map", "graficos/10.bmp", "Leeme.txt", "graficos/2.bmp", "graficos/body/1.bmp",
+                "graficos-old/1.bmp", "mapas/Mapa1.inf", "mapas/Mapa1.map", "mapas/Mapa10.map"), sort(trace, NAMES));
+        assertEquals(2, trace.traced(entries(NAMES)));
+    }
+
+    @Test
+    void compressesInTheOrderOfATraceFile() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        for (String name : NAMES) {
+            Path file = source.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.write(file, randomText(1_000 + name.length()));
+        }
+        AccessTrace recorded = new AccessTrace();
+        for (String name : List.of("mapas/Mapa10.map", "graficos/body/1.bmp", "mapas/Mapa10.map")) recorded.record(name);
+        Path traceFile = dir.resolve("trace.txt");
+        recorded.write(traceFile);
+
+        List<String> log = new ArrayList<>();
+        Path archive = dir.resolve("test.ao");
+        Compressor.Result result = new Compressor().threads(2).order(EntryOrder.trace(traceFile)).logger(log::add)
+                .compress(source.toFile(), archive.toString());
+
+        assertTrue(result.success(), result.message());
+        assertTrue(log.contains("Trace 'trace.txt': 2 of 9 files were read in the trace, the rest follow by folder"), log.toString());
+        List<String> names = new ArrayList<>();
+        try (var channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            for (CentralDirectory.Entry entry : CentralDirectory.read(channel)) names.add(entry.name());
+        }
+        assertEquals(List.of("mapas/Mapa10.map", "graficos/body/1.bmp"), names.subList(0, 2));
+        assertEquals(sort(EntryOrder.FOLDER, NAMES.stream().filter(name -> !names.subList(0, 2).contains(name)).toList()),
+                names.subList(2, names.size()));
+        try (AoArchive ao = AoArchive.open(archive)) {
+            assertArrayEquals(Files.readAllBytes(source.resolve("mapas/Mapa10.map")), ao.read("mapas/Mapa10.map").array());
+        }
+    }
+
+    @Test
+    void rejectsATraceWithoutEntries() throws IOException {
+        Path empty = Files.writeString(dir.resolve("empty.txt"), "# Access trace: entries in the order they were first read\n\n");
+        IOException e = assertThrows(IOException.class, () -> EntryOrder.trace(empty));
+        assertTrue(e.getMessage().contains("has no entries"), e.getMessage());
+        assertThrows(IOException.class, () -> EntryOrder.trace(dir.resolve("missing.txt")));
+    }
+
+    private static List<String> sort(EntryOrder order, List<String> names) {
+        return order.sort(entries(names)).stream().map(SourceManifest.Entry::name).toList();
+    }
+
+    private static List<SourceManifest.Entry> entries(List<String> names) {
+        return names.stream().map(name -> new SourceManifest.Entry(Path.of(name), name, 0, 0)).toList();
+    }
+
+}
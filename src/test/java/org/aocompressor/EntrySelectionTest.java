@@ -0,0 +1,72 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntrySelectionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesGlobsFoldersAndExactPaths() {
+        EntrySelection selection = EntrySelection.parse(List.of("# sounds and bodies", "graficos/body/**", "*.WAV", "", "mapas/",
+                "init\\Obj.dat"));
+        for (String name : List.of("graficos/body/1.bmp", "Graficos/Body/cuerpos/2.bmp", "sonidos/12.wav", "12.wav", "mapas/Mapa1.map",
+                "mapas/viejos/Mapa1.map", "init/obj.dat", "INIT\\OBJ.DAT"))
+            assertTrue(selection.matches(name), name);
+        for (String name : List.of("graficos/1.bmp", "graficos/bodyx/1.bmp", "sonidos/12.wav.bak", "mapas2/Mapa1.map", "init/Obj.dat.bak",
+                "init/Hechizos.dat", "# sounds and bodies"))
+            assertFalse(selection.matches(name), name);
+        assertFalse(selection.isAll());
+    }
+
+    @Test
+    void selectsEverythingWithoutPatternsAndRejectsInvalidGlobs() {
+        assertTrue(EntrySelection.of(List.of()).isAll());
+        assertTrue(EntrySelection.parse(List.of("  ", "# nothing")).isAll());
+        assertTrue(EntrySelection.ALL.matches("any/entry.bin"));
+        assertThrows(IllegalArgumentException.class, () -> EntrySelection.of(List.of("graficos/[body")));
+    }
+
+    @Test
+    void extractsOnlyTheSelectedEntriesAndAliases() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        byte[] body = randomText(20_000), sound = randomText(30_000);
+        Files.createDirectories(source.resolve("graficos/body"));
+        Files.createDirectories(source.resolve("sonidos"));
+        Files.write(source.resolve("graficos/1.bmp"), body);
+        Files.write(source.resolve("graficos/body/1.bmp"), body);
+        Files.write(source.resolve("sonidos/1.wav"), sound);
+        Files.write(source.resolve("sonidos/2.ogg"), randomText(10_000));
+        Path archive = dir.resolve("test.ao");
+        assertTrue(new Compressor().deduplicate(true).compress(source.toFile(), archive.toString()).success());
+
+        // graficos/body/1.bmp is an alias of graficos/1.bmp, which is not selected
+        EntrySelection selection = EntrySelection.of(List.of("graficos/body/", "*.wav"));
+        Compressor.Result result = new Compressor().decompress(archive.toString(), dir.toString(), selection, message -> {
+        }, ProgressListener.NONE);
+
+        assertTrue(result.success(), result.message());
+        assertTrue(result.message().contains("(2 matched, 2 skipped)"), result.message());
+        assertEquals(2, result.filesProcessed());
+        Path extracted = dir.resolve("test-decompressed");
+        assertArrayEquals(body, Files.readAllBytes(extracted.resolve("graficos/body/1.bmp")));
+        assertArrayEquals(sound, Files.readAllBytes(extracted.resolve("sonidos/1.wav")));
+        assertFalse(Files.exists(extracted.resolve("graficos/1.bmp")));
+        assertFalse(Files.exists(extracted.resolve("sonidos/2.ogg")));
+    }
+
+}
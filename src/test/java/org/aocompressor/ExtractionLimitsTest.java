@@ -0,0 +1,73 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.aocompressor.ZipWriterTest.randomText;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractionLimitsTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void defaultsAcceptEveryRatioThatDeflateProduces() throws IOException {
+        // 64 MB of zeros deflate to 65232 bytes, about 1029:1
+        ExtractionLimits.DEFAULT.check("zeros.map", 64 * MB, 65_232, 64 * MB);
+        // Below the threshold any ratio is accepted
+        ExtractionLimits.DEFAULT.check("small.map", MB, 1, MB);
+        ExtractionLimits.NONE.check("bomb.map", Long.MAX_VALUE / 2, 1, Long.MAX_VALUE / 2);
+        ExtractionLimits.NONE.checkEntries(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void namesTheOptionThatRaisesEveryLimit() {
+        assertMessage("--max-ratio", () -> ExtractionLimits.DEFAULT.check("bomb.map", 64 * MB, 64 * MB / 2000, 64 * MB));
+        assertMessage("--max-entry-size", () -> ExtractionLimits.DEFAULT.withMaxEntryBytes(MB).check("big.map", MB + 1, MB, MB + 1));
+        assertMessage("--max-size", () -> ExtractionLimits.DEFAULT.withMaxTotalBytes(MB).check("a.map", 10, 10, MB + 1));
+        assertMessage("--max-entries", () -> ExtractionLimits.DEFAULT.withMaxEntries(10).checkEntries(11));
+        assertThrows(IllegalArgumentException.class, () -> ExtractionLimits.DEFAULT.withMaxRatio(0.5));
+        assertThrows(IllegalArgumentException.class, () -> ExtractionLimits.DEFAULT.withMaxTotalBytes(-1));
+    }
+
+    @Test
+    void stopsAnExtractionAndDeletesWhatItWrote() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source/mapas"));
+        byte[] map = randomText(300_000);
+        for (int i = 1; i <= 5; i++) Files.write(source.resolve("Mapa" + i + ".map"), map);
+        Path archive = dir.resolve("test.ao");
+        assertTrue(new Compressor().compress(source.getParent().toFile(), archive.toString()).success());
+
+        List<String> log = new ArrayList<>();
+        Compressor.Result result = new Compressor().threads(1).limits(ExtractionLimits.DEFAULT.withMaxTotalBytes(1_000_000))
+                .decompress(archive.toString(), dir.toString(), log::add);
+
+        assertFalse(result.success());
+        assertTrue(result.message().contains("--max-size"), result.message());
+        assertFalse(Files.exists(dir.resolve("test-decompressed/mapas")));
+
+        Compressor.Result unlimited = new Compressor().limits(ExtractionLimits.NONE).decompress(archive.toString(), dir.toString(), log::add);
+        assertTrue(unlimited.success(), unlimited.message());
+        assertArrayEquals(map, Files.readAllBytes(dir.resolve("test-decompressed/mapas/Mapa5.map")));
+    }
+
+    private static void assertMessage(String option, Executable check) {
+        String message = assertThrows(ExtractionLimits.LimitExceededException.class, check).getMessage();
+        assertTrue(message.contains(option), message);
+        assertTrue(message.contains("--no-limits"), message);
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractionPlanTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resolvesNamesUnderTheTargetFolder() throws IOException {
+        ExtractionPlan plan = new ExtractionPlan(dir);
+        Path root = dir.toRealPath();
+        assertEquals(root.resolve("graficos/1.bmp"), plan.resolve("graficos/1.bmp"));
+        assertEquals(root.resolve("mapas/Mapa1.map"), plan.resolve("mapas/./Mapa1.map"));
+        // Dots that are part of a name are not a parent segment
+        assertEquals(root.resolve("..graficos/...bmp"), plan.resolve("..graficos/...bmp"));
+    }
+
+    @Test
+    void rejectsNamesThatEscapeTheTargetFolder() throws IOException {
+        ExtractionPlan plan = new ExtractionPlan(dir);
+        for (String name : List.of("", "..", "../evil.txt", "graficos/../../evil.txt", "graficos/..", "..\\evil.txt",
+                "graficos\\..\\..\\evil.txt", "/etc/passwd", "\\Windows\\evil.dll", "graficos/../1.bmp"))
+            assertNull(plan.resolve(name), name);
+    }
+
+    @Test
+    void createsEveryFolderOnceAndRollsBackOnlyWhatItCreated() throws IOException {
+        Files.createDirectories(dir.resolve("existing"));
+        Files.writeString(dir.resolve("existing/keep.txt"), "keep");
+        ExtractionPlan plan = new ExtractionPlan(dir);
+        Path a = plan.resolve("existing/new/a.txt"), b = plan.resolve("graficos/body/1.bmp"), c = plan.resolve("graficos/2.bmp");
+        for (Path file : List.of(a, b, c)) plan.addFile(file);
+        plan.createDirectories();
+        assertTrue(Files.isDirectory(a.getParent()));
+        assertTrue(Files.isDirectory(b.getParent()));
+        for (Path file : List.of(a, b, c)) Files.writeString(file, "data");
+
+        plan.rollBack(List.of(a, b, c));
+        assertFalse(Files.exists(dir.resolve("graficos")));
+        assertFalse(Files.exists(dir.resolve("existing/new")));
+        assertTrue(Files.exists(dir.resolve("existing/keep.txt")));
+    }
+
+    @Test
+    void rejectsFilesUnderAFileInPlaceOfAFolder() throws IOException {
+        Files.writeString(dir.resolve("graficos"), "not a folder");
+        ExtractionPlan plan = new ExtractionPlan(dir);
+        Path file = plan.resolve("graficos/body/1.bmp"), other = plan.resolve("sonidos/1.wav");
+        plan.addFile(file);
+        plan.addFile(other);
+        plan.createDirectories();
+        assertFalse(plan.accepts(file));
+        assertTrue(plan.accepts(other));
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.aocompressor.ZipWriterTest.report;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresetDictionaryTest {
+
+    private static final int FILES = 200;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void trainsFromTheRunsSharedByTheSamples() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) samples.add(ini(i));
+        byte[] dictionary = PresetDictionary.train(samples, 4096);
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096, "length " + dictionary.length);
+        assertTrue(new String(dictionary, StandardCharsets.US_ASCII).contains("GrhIndex="));
+
+        assertEquals(0, PresetDictionary.train(List.of(new byte[0]), 4096).length);
+
+        assertTrue(PresetDictionary.appliesTo(CompressionProfile.Codec.DEFAULT, PresetDictionary.MAX_FILE_SIZE));
+        assertFalse(PresetDictionary.appliesTo(CompressionProfile.Codec.DEFAULT, PresetDictionary.MAX_FILE_SIZE + 1));
+        assertFalse(PresetDictionary.appliesTo(CompressionProfile.Codec.HUFFMAN_ONLY, 100));
+        assertFalse(PresetDictionary.appliesTo(CompressionProfile.Codec.STORED, 100));
+    }
+
+    @Test
+    void deflatesSmallFilesWithTheDictionaryAndReadsThemBack() throws IOException {
+        Path source = writeSource();
+        Path plain = dir.resolve("plain.ao"), archive = dir.resolve("test.ao");
+        assertTrue(new Compressor().compress(source.toFile(), plain.toString()).success());
+        assertTrue(new Compressor().presetDictionary(true).compress(source.toFile(), archive.toString()).success());
+
+        assertTrue(Files.size(archive) < Files.size(plain), Files.size(archive) + " >= " + Files.size(plain));
+        try (var channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            List<CentralDirectory.Entry> entries = CentralDirectory.read(channel);
+            assertEquals(FILES, entries.stream().filter(CentralDirectory.Entry::dictionary).count());
+            assertTrue(entries.stream().anyMatch(entry -> entry.name().equals(PresetDictionary.NAME)));
+        }
+        Compressor.Result result = new Compressor().decompress(archive.toString(), dir.toString(), message -> {
+        });
+        assertTrue(result.success(), result.message());
+        for (int i = 0; i < FILES; i++)
+            assertArrayEquals(ini(i), Files.readAllBytes(dir.resolve("test-decompressed/init/" + i + ".ini")));
+        try (AoArchive ao = AoArchive.open(archive)) {
+            assertArrayEquals(ini(7), ao.read("init/7.ini").array());
+        }
+    }
+
+    @Test
+    void trainsNothingFromTooFewFiles() throws IOException {
+        Path source = writeSource();
+        List<SourceManifest.Entry> files = SourceManifest.scan(source, 1).files();
+        try (var tracker = new ProgressTracker(ProgressListener.NONE)) {
+            assertNull(PresetDictionary.train(files.subList(0, PresetDictionary.MIN_FILES - 1), tracker));
+            assertTrue(PresetDictionary.train(files, tracker).length > 0);
+        }
+    }
+
+    @Test
+    void failsOnEntriesWhoseDictionaryIsMissing() throws IOException {
+        Path source = writeSource();
+        Path archive = dir.resolve("test.ao"), stripped = dir.resolve("stripped.ao");
+        assertTrue(new Compressor().presetDictionary(true).compress(source.toFile(), archive.toString()).success());
+        try (var channel = FileChannel.open(archive, StandardOpenOption.READ);
+             var writer = new ZipWriter(stripped, 4096, report())) {
+            for (CentralDirectory.Entry entry : CentralDirectory.read(channel))
+                if (!entry.name().equals(PresetDictionary.NAME)) writer.copy(entry.name(), entry.modifiedTime(), entry, channel);
+        }
+
+        List<String> log = new ArrayList<>();
+        Compressor.Result result = new Compressor().threads(1).decompress(stripped.toString(), dir.toString(), log::add);
+        assertFalse(result.success());
+        assertTrue(result.message().contains(FILES + " of " + FILES + " entries"), result.message());
+        assertTrue(log.get(0).endsWith("needs the preset dictionary, which is missing"), log.get(0));
+        assertFalse(new Compressor().verify(stripped.toString(), message -> {
+        }).success());
+    }
+
+    private Path writeSource() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source/init"));
+        for (int i = 0; i < FILES; i++) Files.write(source.resolve(i + ".ini"), ini(i));
+        return source.getParent();
+    }
+
+    /** A small object definition, like the thousands in the init folder of the client. */
+    private static byte[] ini(int i) {
+        Random random = new Random(i);
+        return ("[OBJ" + i + "]\r\nName=Objeto " + random.nextInt(10_000) + "\r\nGrhIndex=" + random.nextInt(30_000)
+                + "\r\nObjType=" + random.nextInt(40) + "\r\nValor=" + random.nextInt(100_000) + "\r\nMinHIT=" + random.nextInt(50)
+                + "\r\nMaxHIT=" + random.nextInt(99) + "\r\nClasesProhibidas=" + random.nextInt(12) + "\r\nCrucial=0\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.aocompressor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipWriterTest {
+
+    /** A time with whole seconds, which is what the extended timestamp keeps. */
+    private static final long TIME = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesArchivesThatZipFileReads() throws IOException {
+        byte[] text = "Mapa1.map Mapa1.inf Mapa1.dat ".repeat(500).getBytes(StandardCharsets.UTF_8);
+        byte[] noise = randomBytes(70_000, 1);
+        Path source = Files.write(dir.resolve("noise.bin"), noise);
+        Path archive = dir.resolve("test.ao");
+
+        try (var writer = new ZipWriter(archive, 4096, report());
+             var in = FileChannel.open(source, StandardOpenOption.READ)) {
+            byte[] deflated = deflate(text);
+            writer.write("maps/Mapa1.txt", TIME, ZipEntry.DEFLATED, crc(text), text.length, deflated, 0, deflated.length);
+            writer.write("graficos/1.bmp", TIME, ZipEntry.STORED, crc(noise), noise.length, noise, 0, noise.length);
+            writer.write("sonidos/ñandú.wav", TIME, in, noise.length, null, n -> {
+            });
+            writer.write("empty.txt", TIME, ZipEntry.STORED, crc(new byte[0]), 0, new byte[0], 0, 0);
+        }
+
+        try (var zip = new ZipFile(archive.toFile())) {
+            assertEquals(4, zip.size());
+            assertEntry(zip, "maps/Mapa1.txt", ZipEntry.DEFLATED, text);
+            assertEntry(zip, "graficos/1.bmp", ZipEntry.STORED, noise);
+            assertEntry(zip, "sonidos/ñandú.wav", ZipEntry.STORED, noise);
+            assertEntry(zip, "empty.txt", ZipEntry.STORED, new byte[0]);
+            assertEquals(TIME, zip.getEntry("maps/Mapa1.txt").getLastModifiedTime().toMillis());
+        }
+
+        try (var channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            List<CentralDirectory.Entry> entries = CentralDirectory.read(channel);
+            assertEquals(List.of("maps/Mapa1.txt", "graficos/1.bmp", "sonidos/ñandú.wav", "empty.txt"),
+                    entries.stream().map(CentralDirectory.Entry::name).toList());
+            for (CentralDirectory.Entry entry : entries) {
+                assertEquals(TIME, entry.modifiedTime());
+                assertTrue(entry.exactTime());
+                assertFalse(entry.dictionary());
+            }
+        }
+    }
+
+    @Test
+    void patchesTheLocalHeaderOfStreamedEntries() throws IOException {
+        byte[] data = randomText(300_000);
+        Path source = Files.write(dir.resolve("Mapa1.map"), data);
+        Path archive = dir.resolve("test.ao");
+
+        try (var writer = new ZipWriter(archive, 4096, report());
+             var in = FileChannel.open(source, StandardOpenOption.READ)) {
+            writer.write("Mapa1.map", TIME, in, data.length, new Deflater(Deflater.DEFAULT_COMPRESSION, true), n -> {
+            });
+        }
+
+        ByteBuffer header = readHeader(archive);
+        assertEquals(0x04034b50, header.getInt(0));
+        assertEquals(crc(data), header.getInt(14) & 0xFFFFFFFFL);
+        long compressedSize = header.getInt(18) & 0xFFFFFFFFL;
+        assertEquals(data.length, header.getInt(22));
+        assertTrue(compressedSize > 0 && compressedSize < data.length);
+        assertArrayEquals(data, readStreaming(archive, "Mapa1.map"));
+    }
+
+    @Test
+    void reservesZip64SizesInTheLocalHeaderOfLargeStreamedEntries() throws IOException {
+        byte[] data = randomText(100_000);
+        Path source = Files.write(dir.resolve("video.avi"), data);
+        Path archive = dir.resolve("test.ao");
+
+        // Declared as 4 GB, so the local header is written with ZIP64 sizes before the data is known
+        try (var writer = new ZipWriter(archive, 4096, report());
+             var in = FileChannel.open(source, StandardOpenOption.READ)) {
+            writer.write("video.avi", TIME, in, 0xFFFFFFFFL, new Deflater(Deflater.DEFAULT_COMPRESSION, true), n -> {
+            });
+        }
+
+        ByteBuffer header = readHeader(archive);
+        int nameLength = header.getShort(26);
+        assertEquals(45, header.getShort(4));
+        assertEquals(crc(data), header.getInt(14) & 0xFFFFFFFFL);
+        assertEquals(0xFFFFFFFF, header.getInt(18));
+        assertEquals(0xFFFFFFFF, header.getInt(22));
+        assertEquals(0x0001, header.getShort(30 + nameLength));
+        assertEquals(data.length, header.getLong(30 + nameLength + 4));
+        long compressedSize = header.getLong(30 + nameLength + 12);
+        assertTrue(compressedSize > 0 && compressedSize < data.length);
+        assertArrayEquals(data, readStreaming(archive, "video.avi"));
+        try (var zip = new ZipFile(archive.toFile())) {
+            assertEntry(zip, "video.avi", ZipEntry.DEFLATED, data);
+        }
+    }
+
+    @Test
+    void writesZip64EndRecordsForMoreThan65534Entries() throws IOException {
+        int count = 70_000;
+        Path archive = dir.resolve("test.ao");
+        byte[] data = {'a', 'o'};
+        try (var writer = new ZipWriter(archive, 64 * 1024, report())) {
+            for (int i = 0; i < count; i++) writer.write(i + ".txt", TIME, ZipEntry.STORED, crc(data), data.length, data, 0, data.length);
+        }
+
+        ByteBuffer end = ByteBuffer.wrap(Files.readAllBytes(archive)).order(ByteOrder.LITTLE_ENDIAN);
+        int endStart = end.limit() - 22;
+        assertEquals(0x06054b50, end.getInt(endStart));
+        assertEquals(0xFFFF, end.getShort(endStart + 10) & 0xFFFF);
+        assertEquals(0x07064b50, end.getInt(endStart - 20));
+        int zip64EndStart = (int) end.getLong(endStart - 20 + 8);
+        assertEquals(0x06064b50, end.getInt(zip64EndStart));
+        assertEquals(count, end.getLong(zip64EndStart + 32));
+
+        try (var zip = new ZipFile(archive.toFile())) {
+            assertEquals(count, zip.size());
+            assertEntry(zip, (count - 1) + ".txt", ZipEntry.STORED, data);
+        }
+        try (var channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            assertEquals(count, CentralDirectory.read(channel).size());
+        }
+    }
+
+    @Test
+    void copiesEntriesFromAnotherArchiveAsTheyAre() throws IOException {
+        byte[] text = randomText(50_000);
+        byte[] deflated = deflate(text);
+        Path first = dir.resolve("first.ao"), second = dir.resolve("second.ao");
+        try (var writer = new ZipWriter(first, 4096, report())) {
+            writer.write("padding.bin", TIME, ZipEntry.STORED, crc(new byte[100]), 100, new byte[100], 0, 100);
+            writer.write("Mapa1.map", TIME, ZipEntry.DEFLATED, crc(text), text.length, deflated, 0, deflated.length, true);
+        }
+
+        try (var source = FileChannel.open(first, StandardOpenOption.READ);
+             var writer = new ZipWriter(second, 4096, report())) {
+            CentralDirectory.Entry entry = CentralDirectory.read(source).get(1);
+            writer.copy("maps/Mapa1.map", TIME + 2000, entry, source);
+        }
+
+        try (var channel = FileChannel.open(second, StandardOpenOption.READ)) {
+            CentralDirectory.Entry copied = CentralDirectory.read(channel).get(0);
+            assertEquals("maps/Mapa1.map", copied.name());
+            assertEquals(TIME + 2000, copied.modifiedTime());
+            assertEquals(crc(text), copied.crc());
+            assertEquals(deflated.length, copied.compressedSize());
+            assertTrue(copied.dictionary());
+            ByteBuffer data = CentralDirectory.readFully(channel, CentralDirectory.dataOffset(channel, copied), deflated.length);
+            assertArrayEquals(deflated, data.array());
+        }
+    }
+
+    private static void assertEntry(ZipFile zip, String name, int method, byte[] expected) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(entry, name);
+        assertEquals(method, entry.getMethod(), name);
+        assertEquals(expected.length, entry.getSize(), name);
+        assertEquals(crc(expected), entry.getCrc(), name);
+        try (InputStream in = zip.getInputStream(entry)) {
+            assertArrayEquals(expected, in.readAllBytes(), name);
+        }
+    }
+
+    /** Reads an entry with the local headers only, which is how a streaming reader would see the patched values. */
+    private static byte[] readStreaming(Path archive, String name) throws IOException {
+        try (var in = new ZipInputStream(Files.newInputStream(archive))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; )
+                if (entry.getName().equals(name)) return in.readAllBytes();
+        }
+        throw new AssertionError("No entry '" + name + "'");
+    }
+
+    private static ByteBuffer readHeader(Path archive) throws IOException {
+        byte[] bytes = new byte[1024];
+        try (InputStream in = Files.newInputStream(archive)) {
+            in.readNBytes(bytes, 0, bytes.length);
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static RunReport report() {
+        return new RunReport("test", "", "", 1);
+    }
+
+    static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] output = new byte[data.length + 1024];
+        int length = 0;
+        while (!deflater.finished()) length += deflater.deflate(output, length, output.length - length);
+        deflater.end();
+        return Arrays.copyOf(output, length);
+    }
+
+    static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /** Text made of a few hundred words, which deflates well but not trivially. */
+    static byte[] randomText(int length) {
+        Random random = new Random(length);
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) sb.append("grh").append(random.nextInt(400)).append(random.nextBoolean() ? ' ' : '\n');
+        return sb.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+}